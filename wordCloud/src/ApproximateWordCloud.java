@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * A word cloud for streams too large to count exactly. Memory is fixed when the cloud is
+ * created: a {@link SpaceSaving} summary with a set number of counters, optionally backed by
+ * a {@link CountMinSketch}. Every count in the top hits carries the most it can be over by,
+ * and the number of distinct words is estimated with a {@link HyperLogLog}.
+ */
+public class ApproximateWordCloud implements WordStats, TokenSink {
+
+    private static final int READ_SIZE = 1 << 16;
+
+    private final SpaceSaving summary;
+    private final HyperLogLog cardinality;
+    private final int topK;
+    /** Words added one by one and not yet reported to the metrics */
+    private final WordCloudMetrics.Batch added = new WordCloudMetrics.Batch();
+
+    /**
+     * Creates an empty cloud backed by Space-Saving alone
+     * @param counters The number of words tracked at once
+     * @param topK The number of words reported in the top hits
+     */
+    public ApproximateWordCloud(int counters, int topK)
+    {
+        this(counters, topK, 0, 0);
+    }
+
+    /**
+     * Creates an empty cloud
+     * @param counters The number of words tracked at once
+     * @param topK The number of words reported in the top hits
+     * @param sketchWidth The counters per row of the Count-Min Sketch, or 0 for no sketch
+     * @param sketchDepth The rows of the Count-Min Sketch
+     */
+    public ApproximateWordCloud(int counters, int topK, int sketchWidth, int sketchDepth)
+    {
+        this(counters, topK, sketchWidth, sketchDepth, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty cloud
+     * @param counters The number of words tracked at once
+     * @param topK The number of words reported in the top hits
+     * @param sketchWidth The counters per row of the Count-Min Sketch, or 0 for no sketch
+     * @param sketchDepth The rows of the Count-Min Sketch
+     * @param precision The HyperLogLog precision of the distinct-word estimate
+     */
+    public ApproximateWordCloud(int counters, int topK, int sketchWidth, int sketchDepth, int precision)
+    {
+        if (topK < 1 || topK > counters)
+        {
+            throw new IllegalArgumentException("topK must be between 1 and the number of counters: " + topK);
+        }
+        CountMinSketch sketch = sketchWidth > 0 ? new CountMinSketch(sketchWidth, sketchDepth) : null;
+        summary = new SpaceSaving(counters, sketch);
+        cardinality = new HyperLogLog(precision);
+        this.topK = topK;
+    }
+
+    @Override
+    public void token(byte[] buf, int off, int len)
+    {
+        long hash = WordTable.hash64(buf, off, len);
+        cardinality.add(hash);
+        summary.addHashed(buf, off, len, hash);
+    }
+
+    /** Counts one word */
+    public void add(String word)
+    {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        token(key, 0, key.length);
+        added.add(1);
+    }
+
+    /**
+     * Counts every word in a file
+     * @param fileName The file to read
+     */
+    public void load(String fileName) throws IOException
+    {
+        long start = System.nanoTime();
+        long before = summary.getTotal();
+        ByteTokenizer.tokenize(Paths.get(fileName), this);
+        WordCloudMetrics.global().recordLoad(null, summary.getTotal() - before, System.nanoTime() - start, 0);
+    }
+
+    /**
+     * Counts every word read from a stream until it ends
+     * @param in The stream to read; it is not closed
+     */
+    public void load(InputStream in) throws IOException
+    {
+        long start = System.nanoTime();
+        ByteTokenizer tokenizer = new ByteTokenizer(this);
+        byte[] buf = new byte[READ_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1)
+        {
+            tokenizer.feed(buf, 0, n);
+        }
+        tokenizer.finish();
+        WordCloudMetrics.global().recordLoad(null, tokenizer.getTokenCount(), System.nanoTime() - start, 0);
+    }
+
+    public List<Word> getTopHits()
+    {
+        added.flush();
+        return summary.top(topK);
+    }
+
+    public long getTotalWords()
+    {
+        added.flush();
+        return summary.getTotal();
+    }
+
+    public void printInfo()
+    {
+        List<Word> topHits = getTopHits();
+        System.out.println("Total # of Words >>> " + summary.getTotal());
+        System.out.println("Estimated # of unique Words >>> " + cardinality.estimate() + " (+/- " + String.format("%.2f", cardinality.relativeError() * 100) + "%)");
+        System.out.println("Counters >>> " + summary.getCapacity() + " (counts over by at most " + summary.errorBound() + ")");
+        int t = 1;
+        for(int i = 0; i < topHits.size(); i++)
+        {
+            System.out.println(t+")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount() + "\t(error <= " + topHits.get(i).getError() + ")");
+            t++;
+        }
+    }
+}
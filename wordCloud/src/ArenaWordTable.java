@@ -0,0 +1,355 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Vocabulary} that keeps everything off the Java heap. Word bytes are appended to
+ * direct-memory arena segments that double in size up to 64 MB; the open-addressing slots
+ * and a 16-byte record per word (arena address, hash, count) live in direct buffers too.
+ * No object exists per word, so the heap cost of a vocabulary is a few buffer headers however
+ * many words it holds; Strings are only created when results are read out through {@link #getWord}.
+ * <p>
+ * The records of all words share one buffer, which int offsets limit to 2 GB, so a table holds
+ * at most {@link #MAX_WORDS} distinct words.
+ */
+public class ArenaWordTable implements Vocabulary {
+
+    private static final int FIRST_SEGMENT_SIZE = 1 << 16;
+    private static final int MAX_SEGMENT_SIZE = 1 << 26;
+    private static final int RECORD_SIZE = 16;
+    private static final int DEFAULT_CAPACITY = 1024;
+    /** The most slots: half of them hold records, and those must fit one buffer */
+    private static final int MAX_CAPACITY = 1 << 27;
+    /** The most distinct words a table holds */
+    public static final int MAX_WORDS = MAX_CAPACITY / 2;
+
+    /** Hash slots holding id + 1, or 0 for an empty slot */
+    private ByteBuffer slots;
+    private int mask;
+
+    /** Per id: arena address (segment << 32 | position), hash, count */
+    private ByteBuffer records;
+
+    /** Each word is stored in a segment as its length followed by its bytes */
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private ByteBuffer segment;
+
+    private int size;
+    private long total;
+
+    public ArenaWordTable()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty table sized for a number of distinct words
+     * @param expected The number of distinct words expected
+     */
+    public ArenaWordTable(int expected)
+    {
+        long wanted = Long.highestOneBit(Math.max(expected, 16) * 2L - 1) << 1;
+        int capacity = (int) Math.min(wanted, MAX_CAPACITY);
+        slots = ByteBuffer.allocateDirect(capacity * 4);
+        mask = capacity - 1;
+        records = ByteBuffer.allocateDirect(capacity / 2 * RECORD_SIZE);
+    }
+
+    public int add(byte[] buf, int off, int len, int n)
+    {
+        return add(buf, off, len, n, WordTable.hash64(buf, off, len));
+    }
+
+    public int addHashed(byte[] buf, int off, int len, long hash)
+    {
+        return add(buf, off, len, 1, hash);
+    }
+
+    private int add(byte[] buf, int off, int len, int n, long hash)
+    {
+        int h = (int) hash;
+        int i = h & mask;
+        int slot;
+        while ((slot = slots.getInt(i * 4)) != 0)
+        {
+            int id = slot - 1;
+            if (hashOf(id) == h && keyEquals(id, buf, off, len))
+            {
+                int at = id * RECORD_SIZE + 12;
+                records.putInt(at, records.getInt(at) + n);
+                total += n;
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if ((size + 1) * RECORD_SIZE > records.capacity())
+        {
+            grow();
+            return add(buf, off, len, n, hash);
+        }
+        int id = size++;
+        int at = id * RECORD_SIZE;
+        records.putLong(at, append(buf, off, len));
+        records.putInt(at + 8, h);
+        records.putInt(at + 12, n);
+        total += n;
+        slots.putInt(i * 4, id + 1);
+        return id;
+    }
+
+    public int find(byte[] buf, int off, int len)
+    {
+        int h = (int) WordTable.hash64(buf, off, len);
+        int i = h & mask;
+        int slot;
+        while ((slot = slots.getInt(i * 4)) != 0)
+        {
+            int id = slot - 1;
+            if (hashOf(id) == h && keyEquals(id, buf, off, len))
+            {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void addAll(WordCounts other)
+    {
+        byte[] key = new byte[64];
+        for (int id = 0; id < other.size(); id++)
+        {
+            int len = other.getKeyLength(id);
+            if (len > key.length)
+            {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            other.copyKey(id, key, 0);
+            add(key, 0, len, other.getCount(id));
+        }
+    }
+
+    /** Copies a word into the arena and returns its address */
+    private long append(byte[] buf, int off, int len)
+    {
+        if (segment == null || segment.remaining() < len + 4)
+        {
+            int next = segment == null ? FIRST_SEGMENT_SIZE : Math.min(segment.capacity() * 2, MAX_SEGMENT_SIZE);
+            segment = ByteBuffer.allocateDirect(Math.max(next, len + 4));
+            segments.add(segment);
+        }
+        long address = (long) (segments.size() - 1) << 32 | segment.position();
+        segment.putInt(len);
+        segment.put(buf, off, len);
+        return address;
+    }
+
+    private void grow()
+    {
+        if (mask + 1 >= MAX_CAPACITY)
+        {
+            throw new IllegalArgumentException("vocabulary too large for an off-heap table: more than " + MAX_WORDS + " distinct words");
+        }
+        int capacity = (mask + 1) * 2;
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity / 2 * RECORD_SIZE);
+        records.position(0).limit(size * RECORD_SIZE);
+        bigger.put(records);
+        records = bigger;
+        slots = ByteBuffer.allocateDirect(capacity * 4);
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++)
+        {
+            int i = hashOf(id) & mask;
+            while (slots.getInt(i * 4) != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            slots.putInt(i * 4, id + 1);
+        }
+    }
+
+    private int hashOf(int id)
+    {
+        return records.getInt(id * RECORD_SIZE + 8);
+    }
+
+    private ByteBuffer segmentOf(long address)
+    {
+        return segments.get((int) (address >>> 32));
+    }
+
+    private boolean keyEquals(int id, byte[] buf, int off, int len)
+    {
+        long address = records.getLong(id * RECORD_SIZE);
+        ByteBuffer seg = segmentOf(address);
+        int pos = (int) address;
+        if (seg.getInt(pos) != len)
+        {
+            return false;
+        }
+        pos += 4;
+        for (int i = 0; i < len; i++)
+        {
+            if (seg.get(pos + i) != buf[off + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public int getCount(int id)
+    {
+        return records.getInt(id * RECORD_SIZE + 12);
+    }
+
+    public String getWord(int id)
+    {
+        return word(records, segments, id);
+    }
+
+    public int getKeyLength(int id)
+    {
+        long address = records.getLong(id * RECORD_SIZE);
+        return segmentOf(address).getInt((int) address);
+    }
+
+    public void copyKey(int id, byte[] dst, int off)
+    {
+        long address = records.getLong(id * RECORD_SIZE);
+        ByteBuffer seg = segmentOf(address);
+        int pos = (int) address;
+        seg.get(pos + 4, dst, off, seg.getInt(pos));
+    }
+
+    public int compareWords(int a, int b)
+    {
+        return compareWords(records, segments, a, b);
+    }
+
+    private static String word(ByteBuffer records, List<ByteBuffer> segments, int id)
+    {
+        long address = records.getLong(id * RECORD_SIZE);
+        ByteBuffer seg = segments.get((int) (address >>> 32));
+        int pos = (int) address;
+        byte[] key = new byte[seg.getInt(pos)];
+        seg.get(pos + 4, key, 0, key.length);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static int compareWords(ByteBuffer records, List<ByteBuffer> segments, int a, int b)
+    {
+        long addressA = records.getLong(a * RECORD_SIZE);
+        long addressB = records.getLong(b * RECORD_SIZE);
+        ByteBuffer segA = segments.get((int) (addressA >>> 32));
+        ByteBuffer segB = segments.get((int) (addressB >>> 32));
+        int posA = (int) addressA;
+        int posB = (int) addressB;
+        int lenA = segA.getInt(posA);
+        int lenB = segB.getInt(posB);
+        for (int i = 0; i < Math.min(lenA, lenB); i++)
+        {
+            int d = (segA.get(posA + 4 + i) & 0xff) - (segB.get(posB + 4 + i) & 0xff);
+            if (d != 0)
+            {
+                return d;
+            }
+        }
+        return lenA - lenB;
+    }
+
+    /**
+     * Holds on to the records and segments. Word bytes are only ever appended to the segments
+     * and read with absolute gets, so the view reads them in place; the counts are copied out
+     * of the records here.
+     */
+    public CountSource freeze()
+    {
+        return new Frozen(records, new ArrayList<>(segments), size);
+    }
+
+    private static class Frozen implements CountSource {
+
+        private final ByteBuffer records;
+        private final List<ByteBuffer> segments;
+        private final int size;
+        private final int[] counts;
+
+        Frozen(ByteBuffer records, List<ByteBuffer> segments, int size)
+        {
+            this.records = records;
+            this.segments = segments;
+            this.size = size;
+            counts = new int[size];
+            for (int i = 0; i < size; i++)
+            {
+                counts[i] = records.getInt(i * RECORD_SIZE + 12);
+            }
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public int getCount(int id)
+        {
+            return counts[id];
+        }
+
+        public String getWord(int id)
+        {
+            return word(records, segments, id);
+        }
+
+        public int compareWords(int a, int b)
+        {
+            return ArenaWordTable.compareWords(records, segments, a, b);
+        }
+    }
+
+    public double getLoadFactor()
+    {
+        return (double) size / (mask + 1);
+    }
+
+    public double getAverageProbeLength()
+    {
+        long probes = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            int slot = slots.getInt(i * 4);
+            if (slot != 0)
+            {
+                probes += ((i - hashOf(slot - 1)) & mask) + 1;
+            }
+        }
+        return size == 0 ? 0 : (double) probes / size;
+    }
+
+    public int getMaxProbeLength()
+    {
+        int max = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            int slot = slots.getInt(i * 4);
+            if (slot != 0)
+            {
+                max = Math.max(max, ((i - hashOf(slot - 1)) & mask) + 1);
+            }
+        }
+        return max;
+    }
+}
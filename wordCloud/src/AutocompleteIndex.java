@@ -0,0 +1,273 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers "the k most frequent words starting with this prefix" without looking at the words
+ * under the prefix. A byte trie over the vocabulary is stored in parallel arrays, and every
+ * node keeps the best words of its subtree, so a query is a walk down the prefix followed by
+ * reading one precomputed list.
+ * <p>
+ * A node with one child and no word of its own has the same subtree as the child, so it shares
+ * the child's list instead of storing a copy; long unbranched tails cost one list between them.
+ * The index is a snapshot: later changes to the vocabulary are not seen.
+ */
+public class AutocompleteIndex {
+
+    public static final int MAX_SUGGESTIONS = 255;
+
+    private final int maxSuggestions;
+
+    /** The words in byte order, as UTF-8 bytes end to end, and their counts */
+    private final byte[] text;
+    private final int[] textOffsets;
+    private final int[] counts;
+
+    /** Trie nodes: the byte on the edge in, the first child and the next sibling, or -1 */
+    private byte[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+    /** Where each node's best words start in the list pool, and how many there are */
+    private int[] listStart;
+    private byte[] listLength;
+    private int nodeCount;
+
+    /** Word indexes, best first, in runs of up to maxSuggestions */
+    private int[] lists;
+    private int listSize;
+    /** Scratch space for ranking a node's candidates while building */
+    private long[] ranked = new long[16];
+
+    /**
+     * Builds the index
+     * @param words The counted words
+     * @param maxSuggestions The most words a query can ask for, up to {@link #MAX_SUGGESTIONS}
+     */
+    public AutocompleteIndex(WordCounts words, int maxSuggestions)
+    {
+        if (maxSuggestions < 1 || maxSuggestions > MAX_SUGGESTIONS)
+        {
+            throw new IllegalArgumentException("maxSuggestions must be between 1 and " + MAX_SUGGESTIONS + ": " + maxSuggestions);
+        }
+        this.maxSuggestions = maxSuggestions;
+
+        int n = words.size();
+        Integer[] order = new Integer[n];
+        long textSize = 0;
+        for (int id = 0; id < n; id++)
+        {
+            order[id] = id;
+            textSize += words.getKeyLength(id);
+        }
+        if (textSize >= Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("vocabulary too large to index");
+        }
+        Arrays.sort(order, words::compareWords);
+        text = new byte[(int) textSize];
+        textOffsets = new int[n + 1];
+        counts = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            int id = order[i];
+            words.copyKey(id, text, textOffsets[i]);
+            textOffsets[i + 1] = textOffsets[i] + words.getKeyLength(id);
+            counts[i] = words.getCount(id);
+        }
+
+        // a trie has at most one node per key byte, plus the root
+        int capacity = (int) textSize + 1;
+        labels = new byte[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        listStart = new int[capacity];
+        listLength = new byte[capacity];
+        lists = new int[Math.max(16, n)];
+        build();
+        ranked = null;
+        labels = Arrays.copyOf(labels, nodeCount);
+        firstChild = Arrays.copyOf(firstChild, nodeCount);
+        nextSibling = Arrays.copyOf(nextSibling, nodeCount);
+        listStart = Arrays.copyOf(listStart, nodeCount);
+        listLength = Arrays.copyOf(listLength, nodeCount);
+        lists = Arrays.copyOf(lists, listSize);
+    }
+
+    /**
+     * Inserts the words in byte order, keeping the path to the last word on a stack. A node is
+     * complete once a word diverges from it, which is when its list is worked out from its
+     * children's lists.
+     */
+    private void build()
+    {
+        int[] lastChild = new int[labels.length];
+        int[] terminal = new int[labels.length];
+        int[] stack = new int[64];
+        int depth = 0;
+        stack[0] = newNode((byte) 0);
+        terminal[0] = -1;
+        lastChild[0] = -1;
+
+        for (int i = 0; i < counts.length; i++)
+        {
+            int start = textOffsets[i];
+            int len = textOffsets[i + 1] - start;
+            int common = 0;
+            if (i > 0)
+            {
+                int previous = textOffsets[i - 1];
+                int max = Math.min(depth, len);
+                while (common < max && text[previous + common] == text[start + common])
+                {
+                    common++;
+                }
+            }
+            while (depth > common)
+            {
+                complete(stack[depth--], terminal, lastChild);
+            }
+            for (int d = common; d < len; d++)
+            {
+                int parent = stack[depth];
+                int node = newNode(text[start + d]);
+                lastChild[node] = -1;
+                terminal[node] = -1;
+                if (lastChild[parent] < 0)
+                {
+                    firstChild[parent] = node;
+                }
+                else
+                {
+                    nextSibling[lastChild[parent]] = node;
+                }
+                lastChild[parent] = node;
+                if (++depth == stack.length)
+                {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth] = node;
+            }
+            terminal[stack[depth]] = i;
+        }
+        while (depth >= 0)
+        {
+            complete(stack[depth--], terminal, lastChild);
+        }
+    }
+
+    private int newNode(byte label)
+    {
+        int node = nodeCount++;
+        labels[node] = label;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        return node;
+    }
+
+    /** Works out a node's best words from its own word and its children's best words */
+    private void complete(int node, int[] terminal, int[] lastChild)
+    {
+        int child = firstChild[node];
+        if (terminal[node] < 0 && child >= 0 && nextSibling[child] < 0)
+        {
+            listStart[node] = listStart[child];
+            listLength[node] = listLength[child];
+            return;
+        }
+
+        int candidates = terminal[node] >= 0 ? 1 : 0;
+        for (int c = child; c >= 0; c = nextSibling[c])
+        {
+            candidates += listLength[c] & 0xff;
+        }
+        // count descending, then byte order, packed so a plain sort ranks them
+        if (candidates > ranked.length)
+        {
+            ranked = new long[Math.max(candidates, ranked.length * 2)];
+        }
+        int n = 0;
+        if (terminal[node] >= 0)
+        {
+            ranked[n++] = rank(terminal[node]);
+        }
+        for (int c = child; c >= 0; c = nextSibling[c])
+        {
+            for (int j = 0; j < (listLength[c] & 0xff); j++)
+            {
+                ranked[n++] = rank(lists[listStart[c] + j]);
+            }
+        }
+        Arrays.sort(ranked, 0, n);
+        int length = Math.min(n, maxSuggestions);
+        if (listSize + length > lists.length)
+        {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + length));
+        }
+        listStart[node] = listSize;
+        listLength[node] = (byte) length;
+        for (int j = 0; j < length; j++)
+        {
+            lists[listSize++] = (int) ranked[j];
+        }
+    }
+
+    private long rank(int word)
+    {
+        return (long) (Integer.MAX_VALUE - counts[word]) << 32 | word;
+    }
+
+    /**
+     * Finds the most frequent words with a prefix
+     * @param prefix The start of the word; case and accents must match the counted words
+     * @param k The number of words wanted, up to the maxSuggestions the index was built with
+     * @return Up to k words, most frequent first
+     */
+    public List<Word> complete(String prefix, int k)
+    {
+        if (k < 1 || k > maxSuggestions)
+        {
+            throw new IllegalArgumentException("k must be between 1 and " + maxSuggestions + ": " + k);
+        }
+        List<Word> result = new ArrayList<>();
+        if (counts.length == 0)
+        {
+            return result;
+        }
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int node = 0;
+        for (byte b : key)
+        {
+            int c = firstChild[node];
+            while (c >= 0 && labels[c] != b)
+            {
+                c = nextSibling[c];
+            }
+            if (c < 0)
+            {
+                return result;
+            }
+            node = c;
+        }
+        int length = Math.min(k, listLength[node] & 0xff);
+        for (int j = 0; j < length; j++)
+        {
+            int word = lists[listStart[node] + j];
+            int start = textOffsets[word];
+            result.add(new Word(new String(text, start, textOffsets[word + 1] - start, StandardCharsets.UTF_8), counts[word]));
+        }
+        return result;
+    }
+
+    /** @return The number of words indexed */
+    public int size()
+    {
+        return counts.length;
+    }
+
+    /** @return The number of trie nodes, including the root */
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+}
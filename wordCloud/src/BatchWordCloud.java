@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts every file under a directory, one task per file, reporting each file's top hits
+ * as it finishes and merging all of them into one global count.
+ * <p>
+ * Tasks run on virtual threads when the JVM has them and on a fixed pool otherwise. Two
+ * semaphores keep the batch bounded however many files there are: one caps the files open at
+ * once, and one caps the bytes in flight, charged per file for its size plus its table. The
+ * directory walk blocks on the byte budget, so files are not queued faster than they are counted.
+ * <p>
+ * A file or directory that cannot be read is reported to {@link FileListener#fileFailed} and
+ * left out, and the batch goes on. Each file is merged into the global count a stripe at a
+ * time: its words are sorted by hash into lock-striped tables, each locked once per file, so
+ * files finishing together rarely wait on each other. The stripes hold disjoint words and are
+ * combined into one table once every file is in.
+ */
+public class BatchWordCloud implements WordStats {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L << 20;
+
+    /** Files up to this size are read onto the heap; bigger ones are mapped */
+    private static final int READ_LIMIT = 1 << 20;
+    /** What an empty word table costs */
+    private static final int TABLE_BASE = 32 << 10;
+    /** What each distinct word costs in a table: key bytes, String, slot, hash and count */
+    private static final int BYTES_PER_WORD = 128;
+    /** Average bytes per token, delimiter included, for estimating tokens from file size */
+    private static final int BYTES_PER_TOKEN = 6;
+    /** Heaps' law constant for distinct words = K * sqrt(tokens); generous for natural text */
+    private static final int HEAPS_K = 200;
+    /** Lock stripes of the global count, a power of two */
+    private static final int MERGE_STRIPES = 16;
+
+    /**
+     * Receives each file's result, once the file has been merged into the global count.
+     * Called from worker threads, possibly at the same time. An exception thrown by
+     * fileCounted is passed to fileFailed; one thrown by fileFailed fails the batch.
+     */
+    public interface FileListener {
+        void fileCounted(Path file, List<Word> topHits);
+
+        /**
+         * Reports a file or directory that was left out because it could not be read. Does
+         * nothing by default.
+         * @param file The file or directory
+         * @param error Why it could not be read
+         */
+        default void fileFailed(Path file, IOException error)
+        {
+        }
+    }
+
+    private final WordCloudOptions options;
+    private final FileListener listener;
+    private final Semaphore openFiles;
+    /** Permits are kilobytes */
+    private final Semaphore inFlight;
+    private final int budget;
+    /** Disjoint shares of the global count by hash, each guarded by synchronizing on it */
+    private final Vocabulary[] stripes = new Vocabulary[MERGE_STRIPES];
+    private Vocabulary global;
+    private List<Word> topHits;
+    private int fileCount;
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private IOException failure;
+
+    /**
+     * Counts a directory tree with the default limits
+     * @param directory The directory to walk
+     * @param listener Receives each file's top hits
+     */
+    public BatchWordCloud(String directory, FileListener listener) throws IOException
+    {
+        this(directory, new WordCloudOptions(), DEFAULT_MAX_OPEN_FILES, DEFAULT_MAX_IN_FLIGHT_BYTES, listener);
+    }
+
+    /**
+     * Counts a directory tree. A file or directory that cannot be read is passed to the
+     * listener's fileFailed and skipped. If the listener's fileFailed throws, the other files
+     * are still counted, and then the first such failure is thrown with any later ones
+     * suppressed in it.
+     * @param directory The directory to walk
+     * @param options The top-K size, normalizer and off-heap setting to count with; n-grams, snapshots and estimates are not used
+     * @param maxOpenFiles The most files read at once
+     * @param maxInFlightBytes The most file and table bytes held at once; a larger file is counted on its own
+     * @param listener Receives each file's top hits
+     */
+    public BatchWordCloud(String directory, WordCloudOptions options, int maxOpenFiles, long maxInFlightBytes,
+                          FileListener listener) throws IOException
+    {
+        if (maxOpenFiles < 1)
+        {
+            throw new IllegalArgumentException("maxOpenFiles must be at least 1: " + maxOpenFiles);
+        }
+        if (maxInFlightBytes < 1024)
+        {
+            throw new IllegalArgumentException("maxInFlightBytes must be at least 1024: " + maxInFlightBytes);
+        }
+        this.options = options;
+        this.listener = listener;
+        openFiles = new Semaphore(maxOpenFiles);
+        budget = (int) Math.min(maxInFlightBytes >> 10, Integer.MAX_VALUE);
+        inFlight = new Semaphore(budget);
+        for (int s = 0; s < stripes.length; s++)
+        {
+            stripes[s] = options.isOffHeap() ? new ArenaWordTable() : new WordTable();
+        }
+        load(Paths.get(directory), maxOpenFiles);
+    }
+
+    private void load(Path directory, int maxOpenFiles) throws IOException
+    {
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor(maxOpenFiles);
+        try
+        {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+                {
+                    if (attrs.isRegularFile())
+                    {
+                        submit(executor, file, attrs.size());
+                    }
+                    else if (attrs.isSymbolicLink() && Files.isRegularFile(file))
+                    {
+                        long size;
+                        try
+                        {
+                            size = Files.size(file);
+                        }
+                        catch (IOException e)
+                        {
+                            skip(file, e);
+                            return FileVisitResult.CONTINUE;
+                        }
+                        submit(executor, file, size);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException
+                {
+                    if (file.equals(directory))
+                    {
+                        throw e;
+                    }
+                    skip(file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                {
+                    if (e != null)
+                    {
+                        skip(dir, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        finally
+        {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+
+        // the stripes hold disjoint words, so combining them only appends
+        global = stripes[0];
+        for (int s = 1; s < stripes.length; s++)
+        {
+            global.addAll(stripes[s]);
+            stripes[s] = null;
+        }
+        long counted = System.nanoTime();
+        topHits = TopK.select(global, options.getTopK());
+        WordCloudMetrics.global().recordLoad(global, global.getTotal(), counted - start, System.nanoTime() - counted);
+    }
+
+    /** Charges a file to the byte budget, waiting for room, and queues it */
+    private void submit(ExecutorService executor, Path file, long size) throws InterruptedIOException
+    {
+        int cost = (int) Math.min(budget, (size + tableBytes(size) + 1023) >> 10);
+        try
+        {
+            inFlight.acquire(cost);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while walking to " + file);
+        }
+        fileCount++;
+        executor.execute(() -> {
+            try
+            {
+                countFile(file, size);
+            }
+            finally
+            {
+                inFlight.release(cost);
+            }
+        });
+    }
+
+    /**
+     * Estimates the memory of a file's own word table from its size, since the table has to be
+     * charged before the file is read
+     */
+    private static long tableBytes(long fileSize)
+    {
+        long tokens = fileSize / BYTES_PER_TOKEN;
+        long distinct = Math.min(tokens, (long) (HEAPS_K * Math.sqrt(tokens)));
+        return TABLE_BASE + distinct * BYTES_PER_WORD;
+    }
+
+    private void countFile(Path file, long size)
+    {
+        CountingSink sink = new CountingSink(new WordCloudOptions().setOffHeap(options.isOffHeap()));
+        try
+        {
+            openFiles.acquire();
+            try
+            {
+                TokenSink tokens = options.wrap(sink);
+                if (size <= READ_LIMIT)
+                {
+                    ByteTokenizer tokenizer = new ByteTokenizer(tokens);
+                    byte[] content = read(file, (int) size);
+                    tokenizer.feed(content, 0, content.length);
+                    tokenizer.finish();
+                }
+                else
+                {
+                    ByteTokenizer.tokenize(file, tokens);
+                }
+            }
+            finally
+            {
+                openFiles.release();
+            }
+        }
+        catch (IOException e)
+        {
+            skip(file, e);
+            return;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            fail(new InterruptedIOException("interrupted before reading " + file));
+            return;
+        }
+
+        Vocabulary table = sink.getTable();
+        merge(table);
+        try
+        {
+            listener.fileCounted(file, TopK.select(table, options.getTopK()));
+        }
+        catch (RuntimeException e)
+        {
+            skip(file, new IOException("listener failed for " + file, e));
+        }
+    }
+
+    /** Adds a file's words to the global stripes, locking each stripe once */
+    private void merge(Vocabulary table)
+    {
+        int n = table.size();
+        // counting sort of the ids by stripe, by the top bits of the hash as in ConcurrentWordCloud
+        int shift = 64 - Integer.numberOfTrailingZeros(MERGE_STRIPES);
+        byte[] key = new byte[64];
+        int[] stripeOf = new int[n];
+        int[] stripeStart = new int[MERGE_STRIPES + 1];
+        for (int id = 0; id < n; id++)
+        {
+            int len = table.getKeyLength(id);
+            if (len > key.length)
+            {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            table.copyKey(id, key, 0);
+            stripeOf[id] = (int) (WordTable.hash64(key, 0, len) >>> shift);
+            stripeStart[stripeOf[id] + 1]++;
+        }
+        for (int s = 0; s < MERGE_STRIPES; s++)
+        {
+            stripeStart[s + 1] += stripeStart[s];
+        }
+        int[] byStripe = new int[n];
+        int[] next = stripeStart.clone();
+        for (int id = 0; id < n; id++)
+        {
+            byStripe[next[stripeOf[id]]++] = id;
+        }
+
+        for (int s = 0; s < MERGE_STRIPES; s++)
+        {
+            Vocabulary stripe = stripes[s];
+            synchronized (stripe)
+            {
+                for (int i = stripeStart[s]; i < stripeStart[s + 1]; i++)
+                {
+                    int id = byStripe[i];
+                    int len = table.getKeyLength(id);
+                    table.copyKey(id, key, 0);
+                    stripe.add(key, 0, len, table.getCount(id));
+                }
+            }
+        }
+    }
+
+    /** Reports a file or directory that is left out, failing the batch only if the listener throws */
+    private void skip(Path file, IOException e)
+    {
+        failedCount.incrementAndGet();
+        try
+        {
+            listener.fileFailed(file, e);
+        }
+        catch (RuntimeException listenerFailure)
+        {
+            IOException failed = new IOException("listener failed for " + file, listenerFailure);
+            failed.addSuppressed(e);
+            fail(failed);
+        }
+    }
+
+    /** Reads a small file whole; a file that grew since it was sized is read up to that size */
+    private static byte[] read(Path file, int size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    return Arrays.copyOf(buffer.array(), buffer.position());
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private synchronized void fail(IOException e)
+    {
+        if (failure == null)
+        {
+            failure = e;
+        }
+        else
+        {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /** Virtual threads when the runtime has them (Java 21+), found reflectively so this still builds on 17 */
+    private static ExecutorService newExecutor(int maxOpenFiles)
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(maxOpenFiles);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) throws InterruptedIOException
+    {
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while counting");
+        }
+    }
+
+    /** @return The most frequent words over every file, most frequent first */
+    public List<Word> getTopHits()
+    {
+        return topHits;
+    }
+
+    public long getTotalWords()
+    {
+        return global.getTotal();
+    }
+
+    public int getUniqueWords()
+    {
+        return global.size();
+    }
+
+    public int getFileCount()
+    {
+        return fileCount;
+    }
+
+    /** @return The files and directories left out because they could not be read */
+    public int getFailedCount()
+    {
+        return failedCount.get();
+    }
+
+    public void printInfo()
+    {
+        System.out.println("Total # of Files >>> " + fileCount);
+        System.out.println("Total # of unreadable Files >>> " + failedCount.get());
+        System.out.println("Total # of Words >>> " + global.getTotal());
+        System.out.println("Total # of unique Words >>> " + global.size());
+        for (int i = 0; i < topHits.size(); i++)
+        {
+            System.out.println((i + 1) + ")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount());
+        }
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A tokenizer that splits UTF-8 text into words at the byte level.
+ * Letters, digits, apostrophes and every non-ASCII byte belong to a word; whitespace and
+ * ASCII punctuation end it. Bytes are fed in blocks and a word cut off at the end of a
+ * block is carried over to the next one, so no String is ever created here.
+ */
+public class ByteTokenizer {
+
+    /** Files are mapped in windows of this many bytes, so inputs over 2 GB can be read */
+    private static final long MAP_WINDOW = 1L << 30;
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private static final boolean[] WORD_BYTE = new boolean[256];
+
+    static
+    {
+        for (int b = 0; b < 256; b++)
+        {
+            WORD_BYTE[b] = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '\'' || b >= 0x80;
+        }
+    }
+
+    private final TokenSink sink;
+    /** Whether this tokenizer reports its tokens to the metrics, or leaves it to the sink */
+    private final boolean reportTokens;
+    /** Finds word edges a block at a time, or null to test byte by byte */
+    private final WordByteScanner scanner;
+    private byte[] carry = new byte[64];
+    private int carryLength;
+    /** Tokens emitted since the last report to {@link WordCloudMetrics}, and before it */
+    private long tokens;
+    private long reported;
+
+    /**
+     * Tokenizes with the fastest {@link WordByteScanner} available
+     * @param sink Receives the tokens
+     */
+    public ByteTokenizer(TokenSink sink)
+    {
+        this(sink, WordByteScanner.best());
+    }
+
+    /**
+     * @param sink Receives the tokens
+     * @param scanner Classifies bytes in blocks, or null to test one byte at a time; the tokens are the same either way
+     */
+    public ByteTokenizer(TokenSink sink, WordByteScanner scanner)
+    {
+        this.sink = sink;
+        this.scanner = scanner;
+        reportTokens = !sink.reportsTokens();
+    }
+
+    /**
+     * @param b A byte of UTF-8 text
+     * @return true if the byte is part of a word rather than a delimiter
+     */
+    public static boolean isWordByte(byte b)
+    {
+        return WORD_BYTE[b & 0xff];
+    }
+
+    /**
+     * Tokenizes the next block of input
+     * @param buf The buffer holding the block
+     * @param off The offset of the block in the buffer
+     * @param len The length of the block
+     */
+    public void feed(byte[] buf, int off, int len)
+    {
+        scan(buf, off, len);
+        WordCloudMetrics.global().tokenized(len, reportTokens ? tokens : 0);
+        reported += tokens;
+        tokens = 0;
+    }
+
+    private void scan(byte[] buf, int off, int len)
+    {
+        int end = off + len;
+        int i = off;
+
+        if (carryLength > 0)
+        {
+            while (i < end && WORD_BYTE[buf[i] & 0xff])
+            {
+                i++;
+            }
+            appendCarry(buf, off, i - off);
+            if (i == end)
+            {
+                return;
+            }
+            sink.token(carry, 0, carryLength);
+            tokens++;
+            carryLength = 0;
+        }
+
+        if (scanner != null)
+        {
+            i = feedBlocks(buf, i, end);
+        }
+        while (i < end)
+        {
+            while (i < end && !WORD_BYTE[buf[i] & 0xff])
+            {
+                i++;
+            }
+            int start = i;
+            while (i < end && WORD_BYTE[buf[i] & 0xff])
+            {
+                i++;
+            }
+            if (i == end)
+            {
+                appendCarry(buf, start, i - start);
+            }
+            else
+            {
+                sink.token(buf, start, i - start);
+                tokens++;
+            }
+        }
+    }
+
+    /**
+     * Tokenizes whole blocks from a position outside any word. Every bit that differs from the
+     * one below it in the word mask is a word start or end, so the loop runs once per edge
+     * rather than once per byte.
+     * @return Where to go on byte by byte: the end of the last block, or the start of a word it cut off
+     */
+    private int feedBlocks(byte[] buf, int i, int end)
+    {
+        // counted in a local, since a field would be stored around every call to the sink
+        long emitted = 0;
+        boolean inWord = false;
+        int start = i;
+        for (; i + WordByteScanner.BLOCK <= end; i += WordByteScanner.BLOCK)
+        {
+            long word = scanner.wordMask(buf, i);
+            long edges = word ^ (word << 1 | (inWord ? 1 : 0));
+            while (edges != 0)
+            {
+                int at = i + Long.numberOfTrailingZeros(edges);
+                edges &= edges - 1;
+                if (inWord)
+                {
+                    sink.token(buf, start, at - start);
+                    emitted++;
+                }
+                else
+                {
+                    start = at;
+                }
+                inWord = !inWord;
+            }
+        }
+        tokens += emitted;
+        return inWord ? start : i;
+    }
+
+    /** Emits the word left over at the end of the input, if any */
+    public void finish()
+    {
+        if (carryLength > 0)
+        {
+            sink.token(carry, 0, carryLength);
+            carryLength = 0;
+            if (reportTokens)
+            {
+                WordCloudMetrics.global().tokenized(0, 1);
+            }
+            reported++;
+        }
+    }
+
+    /** @return The number of tokens emitted so far */
+    long getTokenCount()
+    {
+        return reported;
+    }
+
+    /**
+     * Hands back the word left over at the end of the input instead of emitting it, for
+     * callers that join it to the start of the input that follows
+     * @return The bytes of the unfinished word, possibly empty
+     */
+    byte[] takeCarry()
+    {
+        byte[] rest = Arrays.copyOf(carry, carryLength);
+        carryLength = 0;
+        return rest;
+    }
+
+    private void appendCarry(byte[] buf, int off, int len)
+    {
+        if (carryLength + len > carry.length)
+        {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + len));
+        }
+        System.arraycopy(buf, off, carry, carryLength, len);
+        carryLength += len;
+    }
+
+    /**
+     * Tokenizes a whole file through a memory-mapped channel
+     * @param file The file to read
+     * @param sink Receives every token in the file
+     */
+    public static void tokenize(Path file, TokenSink sink) throws IOException
+    {
+        tokenize(file, sink, WordByteScanner.best());
+    }
+
+    /**
+     * Tokenizes a whole file through a memory-mapped channel with a given scanner
+     * @param file The file to read
+     * @param sink Receives every token in the file
+     * @param scanner Classifies bytes in blocks, or null to test one byte at a time
+     */
+    public static void tokenize(Path file, TokenSink sink, WordByteScanner scanner) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            tokenize(channel, 0, channel.size(), sink, scanner, null);
+        }
+    }
+
+    /**
+     * Tokenizes a whole file, reporting progress between blocks
+     * @param file The file to read
+     * @param sink Receives every token in the file
+     * @param progress Told the number of bytes tokenized after every block
+     */
+    static void tokenize(Path file, TokenSink sink, LongConsumer progress) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            tokenize(channel, 0, channel.size(), sink, WordByteScanner.best(), progress);
+        }
+    }
+
+    /**
+     * Tokenizes a byte range of a file through a memory-mapped channel.
+     * The range should start and end on word boundaries.
+     * @param channel An open channel on the file
+     * @param start The offset of the first byte to read
+     * @param end The offset just past the last byte to read
+     * @param sink Receives every token in the range
+     */
+    public static void tokenize(FileChannel channel, long start, long end, TokenSink sink) throws IOException
+    {
+        tokenize(channel, start, end, sink, WordByteScanner.best(), null);
+    }
+
+    /**
+     * Tokenizes a byte range of a file, reporting progress between blocks
+     * @param progress Told the number of bytes of the range tokenized after every block
+     */
+    static void tokenize(FileChannel channel, long start, long end, TokenSink sink, LongConsumer progress) throws IOException
+    {
+        tokenize(channel, start, end, sink, WordByteScanner.best(), progress);
+    }
+
+    private static void tokenize(FileChannel channel, long start, long end, TokenSink sink, WordByteScanner scanner,
+                                 LongConsumer progress) throws IOException
+    {
+        ByteTokenizer tokenizer = new ByteTokenizer(sink, scanner);
+        byte[] block = new byte[(int) Math.min(BLOCK_SIZE, Math.max(end - start, 1))];
+        for (long pos = start; pos < end; pos += MAP_WINDOW)
+        {
+            long length = Math.min(MAP_WINDOW, end - pos);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            while (window.hasRemaining())
+            {
+                int n = Math.min(block.length, window.remaining());
+                window.get(block, 0, n);
+                tokenizer.feed(block, 0, n);
+                if (progress != null)
+                {
+                    progress.accept(pos + window.position() - start);
+                }
+            }
+        }
+        tokenizer.finish();
+    }
+}
@@ -0,0 +1,401 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A word count many threads can add to at once. Words are split over lock-striped
+ * {@link WordTable}s by the top bits of their hash, so threads adding different words rarely
+ * meet on a lock, and no other shared state is written on the way in.
+ * <p>
+ * Common words would still pile every thread onto one stripe, so bulk producers should count
+ * through a {@link Producer}: it counts into a private table and folds it into the stripes
+ * every few thousand tokens, taking each stripe's lock once per fold. A word that appears a
+ * thousand times in a batch then costs one locked add instead of a thousand.
+ * <p>
+ * {@link #snapshot()} copies one stripe at a time and never stops the producers, yet sees
+ * every fold whole or not at all. It starts a new epoch, which every add and fold reads as it
+ * begins; then it waits for the folds still running from the old epoch, which each producer
+ * announces in a field of its own, parking until the last of them wakes it. From then on a
+ * stripe not yet copied parks new-epoch adds in a pending table, and merges them in once the
+ * stripe has been copied.
+ * <p>
+ * A snapshot costs time and memory in proportion to the whole vocabulary, since it copies every
+ * stripe and merges the copies into one table, and so does {@link #getTopHits}, which ranks a
+ * snapshot. Call them for a result, not once per token or per batch.
+ */
+public class ConcurrentWordCloud implements WordStats {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** A producer's announced epoch while it is not folding */
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private final Stripe[] stripes;
+    private final int shift;
+    private final LongAdder total = new LongAdder();
+    private final Set<Producer> producers = ConcurrentHashMap.newKeySet();
+    /** Taken by snapshots only, one at a time */
+    private final Object snapshotLock = new Object();
+    /** Raised by each snapshot; written under snapshotLock only */
+    private volatile long epoch;
+    /** The snapshot thread parked on an unfinished fold, or null */
+    private volatile Thread waiter;
+
+    /** One table and its lock, guarded by synchronizing on the stripe */
+    private static class Stripe {
+
+        final WordTable table = new WordTable();
+        /** Adds of a snapshot's epoch that arrived before the snapshot copied this stripe */
+        WordTable pending;
+        /** The epoch of the last snapshot that copied this stripe */
+        long copied;
+        /** Words added straight to this stripe and not yet reported to the metrics */
+        int unreported;
+
+        /** @return Where an add made in the given epoch goes */
+        WordTable target(long addEpoch)
+        {
+            if (addEpoch <= copied)
+            {
+                return table;
+            }
+            if (pending == null)
+            {
+                pending = new WordTable();
+            }
+            return pending;
+        }
+    }
+
+    public ConcurrentWordCloud()
+    {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes The number of independently locked tables, rounded up to a power of two;
+     *                about twice the number of producer threads is plenty
+     */
+    public ConcurrentWordCloud(int stripes)
+    {
+        if (stripes < 1 || stripes > 1 << 16)
+        {
+            throw new IllegalArgumentException("stripes must be between 1 and 65536: " + stripes);
+        }
+        int count = Integer.highestOneBit(stripes * 2 - 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+        {
+            this.stripes[i] = new Stripe();
+        }
+        shift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    private int stripe(long hash)
+    {
+        return shift == 64 ? 0 : (int) (hash >>> shift);
+    }
+
+    /**
+     * Counts one occurrence of a word. Safe to call from any thread.
+     * @param word The word to count
+     */
+    public void add(String word)
+    {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        add(key, 0, key.length, 1);
+    }
+
+    /**
+     * Counts occurrences of a word given as UTF-8 bytes. Safe to call from any thread.
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param n The number of occurrences
+     */
+    public void add(byte[] buf, int off, int len, int n)
+    {
+        long hash = WordTable.hash64(buf, off, len);
+        long addEpoch = epoch;
+        Stripe stripe = stripes[stripe(hash)];
+        int report = 0;
+        synchronized (stripe)
+        {
+            stripe.target(addEpoch).addHashed(buf, off, len, n, hash);
+            stripe.unreported += n;
+            if (stripe.unreported >= WordCloudMetrics.Batch.SIZE)
+            {
+                report = stripe.unreported;
+                stripe.unreported = 0;
+            }
+        }
+        total.add(n);
+        if (report > 0)
+        {
+            WordCloudMetrics.global().tokenized(0, report);
+        }
+    }
+
+    /** @return A new producer, for one thread to count through; close it when done */
+    public Producer newProducer()
+    {
+        Producer producer = new Producer();
+        producers.add(producer);
+        return producer;
+    }
+
+    /**
+     * Counts tokens for one thread and folds them into the shared stripes in batches.
+     * Not thread-safe: each producing thread needs its own. Counts are only visible to
+     * snapshots once folded, so close or flush a producer when its input is done.
+     */
+    public class Producer implements TokenSink, AutoCloseable {
+
+        /** Fold after this many tokens, so snapshots lag by at most a batch per producer */
+        private static final int BATCH_TOKENS = 1 << 14;
+        /** Or after this many distinct words, so the private table stays small */
+        private static final int BATCH_WORDS = 1 << 12;
+
+        private final WordTable local = new WordTable(BATCH_WORDS);
+        private final long[] hashOf = new long[BATCH_WORDS];
+        private final int[] byStripe = new int[BATCH_WORDS];
+        private final int[] stripeStart = new int[stripes.length + 1];
+        /** The epoch of the fold in progress, or IDLE; read by snapshots waiting for it */
+        private volatile long folding = IDLE;
+
+        private Producer()
+        {
+        }
+
+        @Override
+        public void token(byte[] buf, int off, int len)
+        {
+            long hash = WordTable.hash64(buf, off, len);
+            int before = local.size();
+            int id = local.addHashed(buf, off, len, hash);
+            if (local.size() != before)
+            {
+                hashOf[id] = hash;
+            }
+            if (local.getTotal() >= BATCH_TOKENS || local.size() >= BATCH_WORDS)
+            {
+                flush();
+            }
+        }
+
+        /** Counts one word */
+        public void add(String word)
+        {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            token(key, 0, key.length);
+        }
+
+        /** Folds report their tokens, so tokenizers feeding a producer do not report them too */
+        @Override
+        public boolean reportsTokens()
+        {
+            return true;
+        }
+
+        /** Folds everything counted so far into the shared stripes */
+        public void flush()
+        {
+            int n = local.size();
+            if (n == 0)
+            {
+                return;
+            }
+            // counting sort of the local ids by stripe, so each stripe is locked once
+            Arrays.fill(stripeStart, 0);
+            for (int id = 0; id < n; id++)
+            {
+                stripeStart[stripe(hashOf[id]) + 1]++;
+            }
+            for (int s = 0; s < stripes.length; s++)
+            {
+                stripeStart[s + 1] += stripeStart[s];
+            }
+            int[] next = stripeStart.clone();
+            for (int id = 0; id < n; id++)
+            {
+                byStripe[next[stripe(hashOf[id])]++] = id;
+            }
+
+            long foldEpoch = announce();
+            try
+            {
+                for (int s = 0; s < stripes.length; s++)
+                {
+                    if (stripeStart[s] == stripeStart[s + 1])
+                    {
+                        continue;
+                    }
+                    Stripe stripe = stripes[s];
+                    synchronized (stripe)
+                    {
+                        WordTable table = stripe.target(foldEpoch);
+                        for (int i = stripeStart[s]; i < stripeStart[s + 1]; i++)
+                        {
+                            int id = byStripe[i];
+                            byte[] key = local.getKey(id);
+                            table.addHashed(key, 0, key.length, local.getCount(id), hashOf[id]);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                folding = IDLE;
+                wakeSnapshot();
+            }
+            total.add(local.getTotal());
+            WordCloudMetrics.global().tokenized(0, local.getTotal());
+            local.clear();
+        }
+
+        /**
+         * Publishes the epoch this fold belongs to. A snapshot raises the epoch before it looks
+         * at the producers, so reading the epoch again after publishing it tells whether the
+         * snapshot may have missed this fold; if so it joins the new epoch instead.
+         */
+        private long announce()
+        {
+            long current = epoch;
+            while (true)
+            {
+                folding = current;
+                long now = epoch;
+                if (now == current)
+                {
+                    return current;
+                }
+                current = now;
+                wakeSnapshot();
+            }
+        }
+
+        /** Unparks a snapshot that may be waiting on this producer's fold */
+        private void wakeSnapshot()
+        {
+            Thread snapshot = waiter;
+            if (snapshot != null)
+            {
+                LockSupport.unpark(snapshot);
+            }
+        }
+
+        /** Flushes, and stops the cloud waiting for this producer */
+        @Override
+        public void close()
+        {
+            try
+            {
+                flush();
+            }
+            finally
+            {
+                producers.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Copies every folded count as of one instant, without stopping the producers: every
+     * fold is in the copy whole or not at all. Only other snapshots wait for this one.
+     * Takes time and memory in proportion to the number of distinct words.
+     * @return A private table the caller can read at leisure
+     */
+    public WordTable snapshot()
+    {
+        WordTable[] copies = new WordTable[stripes.length];
+        long unreported = 0;
+        synchronized (snapshotLock)
+        {
+            long snapshotEpoch = epoch + 1;
+            epoch = snapshotEpoch;
+            // set before reading the producers' state, so a fold that ends after the read unparks us
+            waiter = Thread.currentThread();
+            try
+            {
+                for (Producer producer : producers)
+                {
+                    while (producer.folding < snapshotEpoch)
+                    {
+                        LockSupport.park(this);
+                    }
+                }
+            }
+            finally
+            {
+                waiter = null;
+            }
+            for (int s = 0; s < stripes.length; s++)
+            {
+                Stripe stripe = stripes[s];
+                synchronized (stripe)
+                {
+                    unreported += stripe.unreported;
+                    stripe.unreported = 0;
+                    copies[s] = stripe.table.copy();
+                    if (stripe.pending != null)
+                    {
+                        stripe.table.addAll(stripe.pending);
+                        stripe.pending = null;
+                    }
+                    stripe.copied = snapshotEpoch;
+                }
+            }
+        }
+        WordCloudMetrics.global().tokenized(0, unreported);
+
+        int size = 0;
+        for (WordTable copy : copies)
+        {
+            size += copy.size();
+        }
+        WordTable merged = new WordTable(size);
+        for (WordTable copy : copies)
+        {
+            merged.addAll(copy);
+        }
+        return merged;
+    }
+
+    /**
+     * Ranks a fresh {@link #snapshot}, so each call costs time in proportion to the number of
+     * distinct words
+     * @param k The number of words wanted
+     * @return The most frequent words of a snapshot, most frequent first
+     */
+    public List<Word> getTopHits(int k)
+    {
+        return TopK.select(snapshot(), k);
+    }
+
+    public List<Word> getTopHits()
+    {
+        return getTopHits(TopK.DEFAULT_K);
+    }
+
+    /** @return The number of words folded or added so far; not tied to any snapshot */
+    public long getTotalWords()
+    {
+        return total.sum();
+    }
+
+    public void printInfo()
+    {
+        WordTable words = snapshot();
+        System.out.println("Total # of Words >>> " + words.getTotal());
+        System.out.println("Total # of unique Words >>> " + words.size());
+        List<Word> topHits = TopK.select(words, TopK.DEFAULT_K);
+        for (int i = 0; i < topHits.size(); i++)
+        {
+            System.out.println((i + 1) + ")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount());
+        }
+    }
+}
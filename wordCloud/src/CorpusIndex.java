@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An inverted index over many documents, built with the same tokenizer as {@link WordCloud}.
+ * Each term has a postings list of (document id, term frequency) pairs, and each document a
+ * list of (term id, term frequency) pairs. Both are stored as varint bytes with ids written as
+ * gaps from the previous id, so the raw text never has to be read again to answer queries.
+ */
+public class CorpusIndex {
+
+    private static final int READ_SIZE = 1 << 16;
+
+    private final WordTable terms = new WordTable();
+    private int[] documentFrequency = new int[1024];
+    private byte[][] postings = new byte[1024][];
+    private int[] postingLengths = new int[1024];
+    private int[] lastDocument = new int[1024];
+
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> documentTerms = new ArrayList<>();
+
+    /**
+     * Indexes a file as the next document
+     * @param fileName The file to index; also used as the document's name
+     * @return The id of the document
+     */
+    public int addDocument(String fileName) throws IOException
+    {
+        WordTable local = new WordTable();
+        ByteTokenizer.tokenize(Paths.get(fileName), local::add);
+        return addDocument(fileName, local);
+    }
+
+    /**
+     * Indexes a stream as the next document
+     * @param name The name of the document
+     * @param in The stream to read until it ends; it is not closed
+     * @return The id of the document
+     */
+    public int addDocument(String name, InputStream in) throws IOException
+    {
+        WordTable local = new WordTable();
+        ByteTokenizer tokenizer = new ByteTokenizer(local::add);
+        byte[] buf = new byte[READ_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1)
+        {
+            tokenizer.feed(buf, 0, n);
+        }
+        tokenizer.finish();
+        return addDocument(name, local);
+    }
+
+    private int addDocument(String name, WordTable local)
+    {
+        int doc = names.size();
+        long[] pairs = new long[local.size()];
+        for (int id = 0; id < local.size(); id++)
+        {
+            byte[] key = local.getKey(id);
+            // the corpus table only gives terms their ids; frequencies live in the postings
+            int term = terms.find(key, 0, key.length);
+            if (term < 0)
+            {
+                term = terms.add(key, 0, key.length);
+            }
+            pairs[id] = (long) term << 32 | local.getCount(id);
+        }
+        Arrays.sort(pairs);
+
+        byte[] forward = new byte[pairs.length * 3 + 8];
+        int length = 0;
+        int previousTerm = 0;
+        for (long pair : pairs)
+        {
+            int term = (int) (pair >>> 32);
+            int tf = (int) pair;
+            forward = ensure(forward, length + 10);
+            length = writeVarint(forward, length, term - previousTerm);
+            length = writeVarint(forward, length, tf);
+            previousTerm = term;
+            addPosting(term, doc, tf);
+        }
+
+        names.add(name);
+        documentTerms.add(Arrays.copyOf(forward, length));
+        return doc;
+    }
+
+    private void addPosting(int term, int doc, int tf)
+    {
+        if (term >= postings.length)
+        {
+            int capacity = Math.max(postings.length * 2, term + 1);
+            postings = Arrays.copyOf(postings, capacity);
+            postingLengths = Arrays.copyOf(postingLengths, capacity);
+            documentFrequency = Arrays.copyOf(documentFrequency, capacity);
+            lastDocument = Arrays.copyOf(lastDocument, capacity);
+        }
+        byte[] list = postings[term] == null ? new byte[8] : postings[term];
+        list = ensure(list, postingLengths[term] + 10);
+        int gap = documentFrequency[term] == 0 ? doc : doc - lastDocument[term];
+        int length = writeVarint(list, postingLengths[term], gap);
+        postingLengths[term] = writeVarint(list, length, tf);
+        postings[term] = list;
+        lastDocument[term] = doc;
+        documentFrequency[term]++;
+    }
+
+    private static byte[] ensure(byte[] buf, int needed)
+    {
+        return needed <= buf.length ? buf : Arrays.copyOf(buf, Math.max(buf.length * 2, needed));
+    }
+
+    private static int writeVarint(byte[] buf, int pos, int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /** Reads a varint at pos[0] and moves pos[0] past it */
+    private static int readVarint(byte[] buf, int[] pos)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buf[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return value;
+    }
+
+    /** @return The number of documents indexed */
+    public int getDocumentCount()
+    {
+        return names.size();
+    }
+
+    public String getDocumentName(int doc)
+    {
+        return names.get(doc);
+    }
+
+    /** @return The number of documents containing a term, or 0 if it was never seen */
+    public int getDocumentFrequency(String term)
+    {
+        int id = terms.find(term);
+        return id < 0 ? 0 : documentFrequency[id];
+    }
+
+    /**
+     * Finds the documents that contain a term
+     * @param term The term to look up
+     * @return The ids of the documents, in increasing order
+     */
+    public int[] documentsContaining(String term)
+    {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int id = terms.find(key, 0, key.length);
+        if (id < 0)
+        {
+            return new int[0];
+        }
+        int[] docs = new int[documentFrequency[id]];
+        int[] pos = {0};
+        int doc = 0;
+        for (int i = 0; i < docs.length; i++)
+        {
+            doc += readVarint(postings[id], pos);
+            readVarint(postings[id], pos);
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    /**
+     * Finds the terms that set a document apart from the rest of the corpus
+     * @param doc The id of the document
+     * @param k The number of terms wanted
+     * @return Up to k terms with the highest tf * log(N / df), highest first
+     */
+    public List<ScoredWord> topTerms(int doc, int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        byte[] forward = documentTerms.get(doc);
+        double n = names.size();
+        PriorityQueue<ScoredWord> heap = new PriorityQueue<>(CorpusIndex::rank);
+        int[] pos = {0};
+        int term = 0;
+        while (pos[0] < forward.length)
+        {
+            term += readVarint(forward, pos);
+            int tf = readVarint(forward, pos);
+            double score = tf * Math.log(n / documentFrequency[term]);
+            if (heap.size() < k)
+            {
+                heap.add(new ScoredWord(terms.getWord(term), tf, score));
+            }
+            else if (score >= heap.peek().getScore())
+            {
+                ScoredWord word = new ScoredWord(terms.getWord(term), tf, score);
+                if (rank(heap.peek(), word) < 0)
+                {
+                    heap.poll();
+                    heap.add(word);
+                }
+            }
+        }
+
+        ScoredWord[] result = new ScoredWord[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--)
+        {
+            result[i] = heap.poll();
+        }
+        return Arrays.asList(result);
+    }
+
+    /** Orders by score, and equal scores by word bytes like {@link TopK}: negative if a ranks below b */
+    private static int rank(ScoredWord a, ScoredWord b)
+    {
+        if (a.getScore() != b.getScore())
+        {
+            return Double.compare(a.getScore(), b.getScore());
+        }
+        return Arrays.compareUnsigned(b.getWord().getBytes(StandardCharsets.UTF_8), a.getWord().getBytes(StandardCharsets.UTF_8));
+    }
+}
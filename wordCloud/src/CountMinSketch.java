@@ -0,0 +1,71 @@
+/**
+ * A Count-Min Sketch: a fixed grid of counters that over-estimates how often an item was seen.
+ * With width w and depth d, an estimate exceeds the true count by more than 2N/w
+ * with probability at most 1/2^d, where N is the number of items added.
+ */
+public class CountMinSketch {
+
+    private final long[][] rows;
+    private final int mask;
+    private long total;
+
+    /**
+     * Creates an empty sketch
+     * @param width The number of counters per row, rounded up to a power of two
+     * @param depth The number of rows
+     */
+    public CountMinSketch(int width, int depth)
+    {
+        if (width < 1 || depth < 1)
+        {
+            throw new IllegalArgumentException("width and depth must be at least 1");
+        }
+        int w = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+        rows = new long[depth][w];
+        mask = w - 1;
+    }
+
+    private int index(long hash, int row)
+    {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return (h1 + row * h2) & mask;
+    }
+
+    /**
+     * Counts an item and returns its new estimate
+     * @param hash A 64-bit hash of the item
+     * @return The estimated count of the item, including this occurrence
+     */
+    public long add(long hash)
+    {
+        total++;
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < rows.length; r++)
+        {
+            long c = ++rows[r][index(hash, r)];
+            min = Math.min(min, c);
+        }
+        return min;
+    }
+
+    /**
+     * @param hash A 64-bit hash of the item
+     * @return The estimated count of the item, never lower than its true count
+     */
+    public long estimate(long hash)
+    {
+        long min = Long.MAX_VALUE;
+        for (int r = 0; r < rows.length; r++)
+        {
+            min = Math.min(min, rows[r][index(hash, r)]);
+        }
+        return min;
+    }
+
+    /** @return The largest amount an estimate is expected to be over by */
+    public long errorBound()
+    {
+        return 2 * total / rows[0].length;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Anything with dense ids 0..size()-1 that each carry a count and a printable word,
+ * which is all {@link TopK} needs to rank them.
+ */
+public interface CountSource {
+
+    /** @return The number of ids */
+    int size();
+
+    int getCount(int id);
+
+    /** @return The word as a String; may create a new String on every call */
+    String getWord(int id);
+
+    /** @return A negative number, zero or a positive number as word a sorts before, equal to or after word b */
+    int compareWords(int a, int b);
+}
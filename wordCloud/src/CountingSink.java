@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/**
+ * The token sink a {@link WordCloud} load counts into: an exact {@link Vocabulary} and, when
+ * enabled, a {@link HyperLogLog} estimate of the distinct words and {@link NGramTable}s of
+ * the phrases. Each token is hashed once for all of them.
+ */
+public class CountingSink implements TokenSink {
+
+    private final Vocabulary table;
+    private final HyperLogLog cardinality;
+
+    /** N-gram tables indexed by n, from 2 up to the configured order */
+    private final NGramTable[] nGrams;
+    /** The ids of the n-grams that ended at the previous token, or -1 */
+    private int[] previous;
+    private int[] current;
+
+    /**
+     * Creates an empty sink
+     * @param options Which store, estimate and n-gram order to count with
+     */
+    public CountingSink(WordCloudOptions options)
+    {
+        table = options.isOffHeap() ? new ArenaWordTable() : new WordTable();
+        int precision = options.getCardinalityPrecision();
+        cardinality = precision > 0 ? new HyperLogLog(precision) : null;
+
+        int order = options.getNGramOrder();
+        nGrams = new NGramTable[order + 1];
+        for (int n = 2; n <= order; n++)
+        {
+            nGrams[n] = new NGramTable(n == 2 ? table : nGrams[n - 1], table);
+        }
+        previous = new int[order + 1];
+        current = new int[order + 1];
+        Arrays.fill(previous, -1);
+    }
+
+    @Override
+    public void token(byte[] buf, int off, int len)
+    {
+        long hash = WordTable.hash64(buf, off, len);
+        if (cardinality != null)
+        {
+            cardinality.add(hash);
+        }
+        int id = table.addHashed(buf, off, len, hash);
+        if (nGrams.length > 2)
+        {
+            countNGrams(id);
+        }
+    }
+
+    private void countNGrams(int id)
+    {
+        current[1] = id;
+        for (int n = 2; n < nGrams.length; n++)
+        {
+            int prefix = previous[n - 1];
+            current[n] = prefix >= 0 ? nGrams[n].add(NGramTable.pack(prefix, id)) : -1;
+        }
+        int[] swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    /**
+     * Folds the counts of another sink into this one. N-grams are not merged, since the ids in
+     * their keys only mean something to the sink that counted them.
+     * @param other A sink created with the same options
+     */
+    public void addAll(CountingSink other)
+    {
+        table.addAll(other.table);
+        if (cardinality != null)
+        {
+            cardinality.merge(other.cardinality);
+        }
+    }
+
+    public Vocabulary getTable()
+    {
+        return table;
+    }
+
+    /**
+     * @param n The number of words per n-gram, from 2 up to the configured order
+     * @return The n-gram counts
+     */
+    public NGramTable getNGrams(int n)
+    {
+        return nGrams[n];
+    }
+
+    /** @return The distinct-word estimate, or null when it is not enabled */
+    public HyperLogLog getCardinality()
+    {
+        return cardinality;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Counts the batches of a token stream into a {@link CountingSink}. It asks for a few batches
+ * up front and for one more each time it has counted one, so the publisher never gets more
+ * than that many batches ahead of the counting.
+ */
+public class CountingSubscriber implements Flow.Subscriber<TokenBatch> {
+
+    public static final int DEFAULT_PREFETCH = 4;
+
+    private final WordCloudOptions options;
+    private final CountingSink sink;
+    private final int prefetch;
+    private final CompletableFuture<CountingSink> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private long subscribed;
+
+    public CountingSubscriber(WordCloudOptions options)
+    {
+        this(options, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param options The store, estimate and n-gram order to count with; tokens arrive already normalized
+     * @param prefetch The most batches requested and not yet counted
+     */
+    public CountingSubscriber(WordCloudOptions options, int prefetch)
+    {
+        if (prefetch < 1)
+        {
+            throw new IllegalArgumentException("prefetch must be at least 1: " + prefetch);
+        }
+        this.options = options;
+        this.prefetch = prefetch;
+        sink = new CountingSink(options);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        if (this.subscription != null)
+        {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscribed = System.nanoTime();
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(TokenBatch batch)
+    {
+        batch.forEach(sink);
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable error)
+    {
+        result.completeExceptionally(error);
+    }
+
+    @Override
+    public void onComplete()
+    {
+        WordCloudMetrics.global().recordLoad(sink.getTable(), sink.getTable().getTotal(), System.nanoTime() - subscribed, 0);
+        result.complete(sink);
+    }
+
+    /** @return The counts, once the stream has completed */
+    public CompletableFuture<CountingSink> getResult()
+    {
+        return result;
+    }
+
+    /** @return The most frequent words, once the stream has completed */
+    public CompletableFuture<List<Word>> getTopHits()
+    {
+        return result.thenApply(counted -> TopK.select(counted.getTable(), options.getTopK()));
+    }
+
+    /** Stops the stream and cancels the result */
+    public void cancel()
+    {
+        if (subscription != null)
+        {
+            subscription.cancel();
+        }
+        result.cancel(false);
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+
+/**
+ * Counts for word ids that can go up and down by one in O(1), kept in order of count.
+ * Ids with the same count share a group, and the groups form a list sorted by count, so the
+ * k highest counts are read off the end of the list in O(k) no matter how many ids there are.
+ */
+public class FrequencyList {
+
+    private static final int NONE = -1;
+
+    /** Per id: its count, its group, and its neighbours within the group */
+    private int[] counts = new int[64];
+    private int[] groupOf = new int[64];
+    private int[] prev = new int[64];
+    private int[] next = new int[64];
+
+    /** Per group: its count, its first id, and its neighbours in count order */
+    private int[] groupCount = new int[16];
+    private int[] groupHead = new int[16];
+    private int[] groupPrev = new int[16];
+    private int[] groupNext = new int[16];
+    private int freeGroup = NONE;
+    private int groups;
+
+    private int lowest = NONE;
+    private int highest = NONE;
+    private int distinct;
+    private long total;
+
+    /** Adds one to the count of an id */
+    public void increment(int id)
+    {
+        ensureId(id);
+        int c = counts[id];
+        int target;
+        if (c == 0)
+        {
+            distinct++;
+            target = lowest != NONE && groupCount[lowest] == 1 ? lowest : newGroup(1, NONE, lowest);
+        }
+        else
+        {
+            int g = groupOf[id];
+            int after = groupNext[g];
+            target = after != NONE && groupCount[after] == c + 1 ? after : newGroup(c + 1, g, after);
+            unlink(id);
+        }
+        link(id, target);
+        counts[id] = c + 1;
+        total++;
+    }
+
+    /** Takes one from the count of an id, which must be above zero */
+    public void decrement(int id)
+    {
+        int c = counts[id];
+        if (c == 0)
+        {
+            throw new IllegalStateException("count of " + id + " is already 0");
+        }
+        int g = groupOf[id];
+        if (c == 1)
+        {
+            unlink(id);
+            distinct--;
+        }
+        else
+        {
+            int before = groupPrev[g];
+            int target = before != NONE && groupCount[before] == c - 1 ? before : newGroup(c - 1, before, g);
+            unlink(id);
+            link(id, target);
+        }
+        counts[id] = c - 1;
+        total--;
+    }
+
+    /** @return The current count of an id */
+    public int getCount(int id)
+    {
+        return id < counts.length ? counts[id] : 0;
+    }
+
+    /** @return The number of ids with a count above zero */
+    public int getDistinct()
+    {
+        return distinct;
+    }
+
+    /** @return The sum of all counts */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Reads the ids with the highest counts. Ids with equal counts come in no particular order.
+     * @param k The number of ids wanted
+     * @return Up to k ids, highest count first
+     */
+    public int[] top(int k)
+    {
+        int[] result = new int[Math.min(k, distinct)];
+        int n = 0;
+        for (int g = highest; g != NONE && n < result.length; g = groupPrev[g])
+        {
+            for (int id = groupHead[g]; id != NONE && n < result.length; id = next[id])
+            {
+                result[n++] = id;
+            }
+        }
+        return result;
+    }
+
+    private void ensureId(int id)
+    {
+        if (id >= counts.length)
+        {
+            int length = Math.max(counts.length * 2, id + 1);
+            counts = Arrays.copyOf(counts, length);
+            groupOf = Arrays.copyOf(groupOf, length);
+            prev = Arrays.copyOf(prev, length);
+            next = Arrays.copyOf(next, length);
+        }
+    }
+
+    /** Creates an empty group and places it between two neighbouring groups */
+    private int newGroup(int count, int before, int after)
+    {
+        int g;
+        if (freeGroup != NONE)
+        {
+            g = freeGroup;
+            freeGroup = groupNext[g];
+        }
+        else
+        {
+            if (groups == groupCount.length)
+            {
+                int length = groups * 2;
+                groupCount = Arrays.copyOf(groupCount, length);
+                groupHead = Arrays.copyOf(groupHead, length);
+                groupPrev = Arrays.copyOf(groupPrev, length);
+                groupNext = Arrays.copyOf(groupNext, length);
+            }
+            g = groups++;
+        }
+        groupCount[g] = count;
+        groupHead[g] = NONE;
+        groupPrev[g] = before;
+        groupNext[g] = after;
+        if (before != NONE)
+        {
+            groupNext[before] = g;
+        }
+        else
+        {
+            lowest = g;
+        }
+        if (after != NONE)
+        {
+            groupPrev[after] = g;
+        }
+        else
+        {
+            highest = g;
+        }
+        return g;
+    }
+
+    private void link(int id, int g)
+    {
+        groupOf[id] = g;
+        prev[id] = NONE;
+        next[id] = groupHead[g];
+        if (groupHead[g] != NONE)
+        {
+            prev[groupHead[g]] = id;
+        }
+        groupHead[g] = id;
+    }
+
+    /** Removes an id from its group, and the group from the list if it is left empty */
+    private void unlink(int id)
+    {
+        int g = groupOf[id];
+        if (prev[id] != NONE)
+        {
+            next[prev[id]] = next[id];
+        }
+        else
+        {
+            groupHead[g] = next[id];
+        }
+        if (next[id] != NONE)
+        {
+            prev[next[id]] = prev[id];
+        }
+
+        if (groupHead[g] == NONE)
+        {
+            int before = groupPrev[g];
+            int after = groupNext[g];
+            if (before != NONE)
+            {
+                groupNext[before] = after;
+            }
+            else
+            {
+                lowest = after;
+            }
+            if (after != NONE)
+            {
+                groupPrev[after] = before;
+            }
+            else
+            {
+                highest = before;
+            }
+            groupNext[g] = freeGroup;
+            freeGroup = g;
+        }
+    }
+}
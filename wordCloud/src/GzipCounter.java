@@ -0,0 +1,747 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Counts the words of a gzip file.
+ * <p>
+ * Sequentially, one thread inflates the file into a few large blocks while the calling thread
+ * tokenizes the blocks already inflated, so decompression and counting overlap.
+ * <p>
+ * A file made of many gzip members, such as concatenated .gz files or BGZF, can be counted in
+ * parallel, because each member can be inflated on its own. Member starts are found without
+ * inflating anything: BGZF headers give the size of each block, and other files are scanned
+ * for the gzip magic. A scan also finds the magic by chance inside compressed data, so each
+ * range of the file starts at its first candidate that inflates to a member with a matching
+ * CRC and length, and then follows the members on from there. Words cut at a range edge are
+ * joined up afterwards, in file order.
+ * <p>
+ * An ordinary .gz file is a single member, which only one thread can inflate. Unless the file
+ * is BGZF, it is therefore only split when some candidate after offset 0 passes a short trial
+ * inflate; otherwise it is read by the sequential pipeline.
+ */
+public class GzipCounter {
+
+    private static final int BLOCK_SIZE = 1 << 18;
+    /** Inflated blocks waiting to be tokenized, at most */
+    private static final int BLOCKS_IN_FLIGHT = 4;
+    private static final int INPUT_SIZE = 1 << 16;
+    /** Headers with more extra data or longer names than this are not looked for */
+    private static final int MAX_HEADER = 1 << 16;
+    private static final int RANGES_PER_THREAD = 4;
+    /** A candidate that inflates this much without error is taken to be a real member */
+    private static final int PROBE_SIZE = 1 << 16;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FRESERVED = 0xe0;
+
+    /**
+     * @param file The file to check
+     * @return true if the file starts with the gzip magic
+     */
+    public static boolean isGzip(Path file) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(file))
+        {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Counts every word in a gzip file, in parallel over its members when the options ask for
+     * more than one thread, there is more than one member and no n-grams are counted
+     * @param file The file to count
+     * @param options How to count; its parallelism is the number of inflating threads
+     * @return A sink holding the counts of the uncompressed text
+     */
+    public static CountingSink count(Path file, WordCloudOptions options) throws IOException
+    {
+        return count(file, options, null);
+    }
+
+    /**
+     * Counts every word in a gzip file, reporting progress in uncompressed bytes as it goes
+     * @param progress Takes the snapshots, or null
+     */
+    static CountingSink count(Path file, WordCloudOptions options, ProgressPublisher progress) throws IOException
+    {
+        if (options.getParallelism() > 1 && options.getNGramOrder() == 1)
+        {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                long[] members = findMembers(channel);
+                if (hasSecondMember(channel, members))
+                {
+                    return countMembers(channel, members, options, progress);
+                }
+            }
+        }
+        CountingSink sink = new CountingSink(options);
+        ProgressPublisher.Part part = progress == null ? null : progress.part();
+        tokenize(file, options.wrap(sink), part == null ? null : bytes -> part.counted(bytes, sink.getTable()));
+        return sink;
+    }
+
+    /**
+     * Tokenizes a gzip file in order, inflating on a second thread
+     * @param file The file to read
+     * @param sink Receives every token of the uncompressed text
+     */
+    public static void tokenize(Path file, TokenSink sink) throws IOException
+    {
+        tokenize(file, sink, null);
+    }
+
+    /**
+     * Tokenizes a gzip file in order, reporting progress between blocks
+     * @param file The file to read
+     * @param sink Receives every token of the uncompressed text
+     * @param progress Told the number of uncompressed bytes tokenized after every block, or null
+     */
+    static void tokenize(Path file, TokenSink sink, LongConsumer progress) throws IOException
+    {
+        BlockingQueue<Block> free = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT);
+        BlockingQueue<Block> full = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT + 1);
+        for (int i = 0; i < BLOCKS_IN_FLIGHT; i++)
+        {
+            free.add(new Block());
+        }
+        Thread inflater = new Thread(() -> inflate(file, free, full), "gzip-inflate");
+        inflater.setDaemon(true);
+        inflater.start();
+
+        ByteTokenizer tokenizer = new ByteTokenizer(sink);
+        long inflated = 0;
+        try
+        {
+            while (true)
+            {
+                Block block = full.take();
+                if (block.error != null)
+                {
+                    throw block.error;
+                }
+                if (block.length < 0)
+                {
+                    break;
+                }
+                tokenizer.feed(block.data, 0, block.length);
+                inflated += block.length;
+                // the inflating thread refills the block as soon as it is back
+                free.add(block);
+                if (progress != null)
+                {
+                    progress.accept(inflated);
+                }
+            }
+            tokenizer.finish();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading " + file);
+        }
+        finally
+        {
+            inflater.interrupt();
+        }
+    }
+
+    /** A buffer of inflated bytes passed from the inflating thread to the tokenizing one */
+    private static class Block {
+
+        final byte[] data;
+        /** The bytes filled, or -1 at the end of the input */
+        int length;
+        IOException error;
+
+        Block()
+        {
+            data = new byte[BLOCK_SIZE];
+        }
+
+        Block(int length, IOException error)
+        {
+            data = null;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    private static void inflate(Path file, BlockingQueue<Block> free, BlockingQueue<Block> full)
+    {
+        Block last;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), INPUT_SIZE))
+        {
+            while (true)
+            {
+                Block block = free.take();
+                block.length = in.readNBytes(block.data, 0, block.data.length);
+                if (block.length == 0)
+                {
+                    break;
+                }
+                full.put(block);
+            }
+            last = new Block(-1, null);
+        }
+        catch (IOException e)
+        {
+            last = new Block(0, e);
+        }
+        catch (InterruptedException e)
+        {
+            // the tokenizing side gave up
+            return;
+        }
+        full.add(last);
+    }
+
+    /**
+     * Finds where the members of a gzip file start: exactly by walking BGZF block sizes, or
+     * otherwise every offset that looks like a member header
+     * @return The candidate offsets in increasing order, starting with 0
+     */
+    static long[] findMembers(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+        long size = channel.size();
+        if (blockSize(channel, 0, header) > 0)
+        {
+            long[] starts = new long[16];
+            int n = 0;
+            long pos = 0;
+            while (pos < size)
+            {
+                int length = blockSize(channel, pos, header);
+                if (length <= 0)
+                {
+                    break;
+                }
+                if (n == starts.length)
+                {
+                    starts = Arrays.copyOf(starts, n * 2);
+                }
+                starts[n++] = pos;
+                pos += length;
+            }
+            return Arrays.copyOf(starts, n);
+        }
+
+        long[] starts = new long[16];
+        int n = 0;
+        ByteBuffer block = ByteBuffer.allocate(1 << 20);
+        long pos = 0;
+        while (pos < size)
+        {
+            block.clear();
+            int read = channel.read(block, pos);
+            if (read < 4)
+            {
+                break;
+            }
+            byte[] bytes = block.array();
+            for (int i = 0; i + 3 < read; i++)
+            {
+                if (bytes[i] == 0x1f && bytes[i + 1] == (byte) 0x8b && bytes[i + 2] == 8 && (bytes[i + 3] & FRESERVED) == 0)
+                {
+                    if (n == starts.length)
+                    {
+                        starts = Arrays.copyOf(starts, n * 2);
+                    }
+                    starts[n++] = pos + i;
+                }
+            }
+            pos += read - 3;
+        }
+        return Arrays.copyOf(starts, n);
+    }
+
+    /**
+     * Tells a file of several members from one whose later candidates are only the magic
+     * found by chance in compressed data
+     * @param members The candidates from {@link #findMembers}
+     * @return true if the file is BGZF, or a candidate after the first starts a member
+     */
+    private static boolean hasSecondMember(FileChannel channel, long[] members) throws IOException
+    {
+        if (members.length < 2)
+        {
+            return false;
+        }
+        if (blockSize(channel, 0, ByteBuffer.allocate(MAX_HEADER)) > 0)
+        {
+            return true;
+        }
+        for (int m = 1; m < members.length; m++)
+        {
+            if (probe(channel, members[m]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Trial-inflates a candidate member. Compressed data read as if it were a member fails
+     * within a few bytes almost always, so {@link #PROBE_SIZE} bytes of clean output, or a whole
+     * member with a matching trailer, is taken as proof.
+     * @return true if the candidate looks like a real member
+     */
+    private static boolean probe(FileChannel channel, long start) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+        channel.read(header, start);
+        int length = headerLength(header);
+        if (length <= 0)
+        {
+            return false;
+        }
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] input = new byte[INPUT_SIZE];
+        byte[] output = new byte[INPUT_SIZE];
+        long pos = start + length;
+        long inflated = 0;
+        try
+        {
+            while (!inflater.finished())
+            {
+                if (inflated >= PROBE_SIZE)
+                {
+                    return true;
+                }
+                if (inflater.needsInput())
+                {
+                    int n = channel.read(ByteBuffer.wrap(input), pos);
+                    if (n <= 0)
+                    {
+                        return false;
+                    }
+                    inflater.setInput(input, 0, n);
+                    pos += n;
+                }
+                else if (inflater.needsDictionary())
+                {
+                    return false;
+                }
+                int n = inflater.inflate(output);
+                crc.update(output, 0, n);
+                inflated += n;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, start + length + inflater.getBytesRead());
+            return trailer.position() == 8 && trailer.getInt(0) == (int) crc.getValue() && trailer.getInt(4) == (int) inflated;
+        }
+        catch (DataFormatException e)
+        {
+            return false;
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /** @return The size of the BGZF block starting at pos, or -1 if there is none */
+    private static int blockSize(FileChannel channel, long pos, ByteBuffer header) throws IOException
+    {
+        header.clear();
+        header.limit(18);
+        channel.read(header, pos);
+        if (header.position() < 18 || headerLength(header) < 0 || (header.get(3) & FEXTRA) == 0)
+        {
+            return -1;
+        }
+        // the extra field holds just the BC subfield: BSIZE is the block size less one
+        if (header.get(12) == 'B' && header.get(13) == 'C' && header.get(14) == 2 && header.get(15) == 0)
+        {
+            return ((header.get(16) & 0xff) | (header.get(17) & 0xff) << 8) + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a member header
+     * @param header The bytes from the start of the member, from 0 to its position
+     * @return The header length, 0 if it runs past the bytes read, or -1 if this is not a header
+     */
+    private static int headerLength(ByteBuffer header)
+    {
+        int read = header.position();
+        if (read < 10 || header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8)
+        {
+            return -1;
+        }
+        int flags = header.get(3) & 0xff;
+        if ((flags & FRESERVED) != 0)
+        {
+            return -1;
+        }
+        int at = 10;
+        if ((flags & FEXTRA) != 0)
+        {
+            if (at + 2 > read)
+            {
+                return 0;
+            }
+            at += 2 + ((header.get(at) & 0xff) | (header.get(at + 1) & 0xff) << 8);
+        }
+        for (int name = FNAME; name <= FCOMMENT; name <<= 1)
+        {
+            if ((flags & name) != 0)
+            {
+                while (at < read && header.get(at) != 0)
+                {
+                    at++;
+                }
+                at++;
+            }
+        }
+        if ((flags & FHCRC) != 0)
+        {
+            at += 2;
+        }
+        return at <= read ? at : 0;
+    }
+
+    private static CountingSink countMembers(FileChannel channel, long[] members, WordCloudOptions options,
+                                             ProgressPublisher progress) throws IOException
+    {
+        int parallelism = options.getParallelism();
+        int ranges = Math.min(members.length, parallelism * RANGES_PER_THREAD);
+        long size = channel.size();
+        List<Callable<Range>> tasks = new ArrayList<>(ranges);
+        int first = 0;
+        for (int r = 0; r < ranges; r++)
+        {
+            long end = r == ranges - 1 ? size : size / ranges * (r + 1);
+            int last = first;
+            while (last < members.length && members[last] < end)
+            {
+                last++;
+            }
+            Range range = new Range(channel, members, first, last, end, r == 0, options, progress == null ? null : progress.part());
+            tasks.add(range::count);
+            first = last;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Range> counted = new ArrayList<>(ranges);
+        try
+        {
+            for (Future<Range> future : pool.invokeAll(tasks))
+            {
+                counted.add(future.get());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while counting");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        // a member whose sync failed would otherwise go missing unnoticed, so the ranges must follow on from each other
+        long expected = 0;
+        for (Range range : counted)
+        {
+            if (range.start >= 0)
+            {
+                if (range.start != expected)
+                {
+                    throw new ZipException("corrupt gzip member at offset " + expected);
+                }
+                expected = range.stop;
+            }
+        }
+        if (expected < size)
+        {
+            ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+            channel.read(header, expected);
+            if (headerLength(header) >= 0)
+            {
+                throw new ZipException("truncated gzip member at offset " + expected);
+            }
+        }
+
+        // each range's sink lacks the words cut at its edges; join those up in file order
+        CountingSink sink = new CountingSink(options);
+        TokenSink edges = options.wrap(sink);
+        byte[] carry = new byte[0];
+        int edgeTokens = 0;
+        long edgeBytes = 0;
+        for (Range range : counted)
+        {
+            sink.addAll(range.sink);
+            edgeBytes += range.head.length;
+            byte[] joined = concat(carry, range.head);
+            if (range.delimited)
+            {
+                if (joined.length > 0)
+                {
+                    edges.token(joined, 0, joined.length);
+                    edgeTokens++;
+                }
+                carry = range.tail;
+            }
+            else
+            {
+                carry = joined;
+            }
+        }
+        if (carry.length > 0)
+        {
+            edges.token(carry, 0, carry.length);
+            edgeTokens++;
+        }
+        // the ranges' tokenizers reported their own bytes and tokens, but the heads never went through one
+        WordCloudMetrics.global().tokenized(edgeBytes, edgeTokens);
+        return sink;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    /**
+     * The members that start in one byte range of the file. Its words are counted except the
+     * ones that may continue past its edges: the word bytes before its first delimiter and
+     * after its last, which are kept as head and tail.
+     */
+    private static class Range {
+
+        private final FileChannel channel;
+        private final long[] members;
+        private final int first;
+        private final int last;
+        private final long end;
+        /** The first range must start with a member; later ones may start on a false candidate */
+        private final boolean strict;
+        private final WordCloudOptions options;
+        /** Reports the bytes inflated, or null */
+        private final ProgressPublisher.Part part;
+
+        private final byte[] input = new byte[INPUT_SIZE];
+        private final ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+        private final ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] output = new byte[BLOCK_SIZE];
+        private final ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+
+        CountingSink sink;
+        private ByteTokenizer tokenizer;
+        private byte[] headBuffer;
+        private int headLength;
+        private long fed;
+        byte[] head;
+        byte[] tail;
+        boolean delimited;
+        /** The offset of the first member read and the offset just past the last, or -1 if none was */
+        long start = -1;
+        long stop = -1;
+
+        Range(FileChannel channel, long[] members, int first, int last, long end, boolean strict, WordCloudOptions options,
+              ProgressPublisher.Part part)
+        {
+            this.channel = channel;
+            this.members = members;
+            this.first = first;
+            this.last = last;
+            this.end = end;
+            this.strict = strict;
+            this.options = options;
+            this.part = part;
+        }
+
+        Range count() throws IOException
+        {
+            try
+            {
+                reset();
+                long pos = -1;
+                for (int m = first; m < last && pos < 0; m++)
+                {
+                    pos = member(members[m], !strict);
+                    if (pos < 0)
+                    {
+                        reset();
+                    }
+                    else
+                    {
+                        start = members[m];
+                    }
+                }
+                stop = pos;
+                while (pos >= 0 && pos < end)
+                {
+                    pos = member(pos, false);
+                    if (pos >= 0)
+                    {
+                        stop = pos;
+                    }
+                }
+                head = Arrays.copyOf(headBuffer, headLength);
+                tail = tokenizer.takeCarry();
+                if (part != null)
+                {
+                    // rank it once here rather than on every later snapshot
+                    part.finish(sink.getTable());
+                }
+                return this;
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+
+        private void reset()
+        {
+            sink = new CountingSink(options);
+            tokenizer = new ByteTokenizer(options.wrap(sink));
+            headBuffer = new byte[64];
+            headLength = 0;
+            fed = 0;
+            delimited = false;
+        }
+
+        /**
+         * Inflates and tokenizes one member
+         * @param start The offset of the member
+         * @param tentative Whether this may not be a member at all
+         * @return The offset just past the member, or -1 if a tentative member was not one, or
+         *         if no header follows the last member, as with trailing padding
+         */
+        private long member(long start, boolean tentative) throws IOException
+        {
+            // most headers are 10 to 30 bytes; only long names need the rest of the buffer
+            header.clear();
+            header.limit(256);
+            channel.read(header, start);
+            int length = headerLength(header);
+            if (length == 0)
+            {
+                header.limit(MAX_HEADER);
+                channel.read(header, start + header.position());
+                length = headerLength(header);
+            }
+            if (length <= 0)
+            {
+                return -1;
+            }
+
+            inflater.reset();
+            crc.reset();
+            long pos = start + length;
+            long inflated = 0;
+            try
+            {
+                while (!inflater.finished())
+                {
+                    if (inflater.needsInput())
+                    {
+                        inputBuffer.clear();
+                        int n = channel.read(inputBuffer, pos);
+                        if (n <= 0)
+                        {
+                            throw new ZipException("truncated gzip member at offset " + start);
+                        }
+                        inflater.setInput(input, 0, n);
+                        pos += n;
+                    }
+                    else if (inflater.needsDictionary())
+                    {
+                        throw new ZipException("invalid gzip member at offset " + start);
+                    }
+                    int n = inflater.inflate(output);
+                    crc.update(output, 0, n);
+                    inflated += n;
+                    feed(output, n);
+                }
+                long at = start + length + inflater.getBytesRead();
+                trailer.clear();
+                channel.read(trailer, at);
+                if (trailer.position() < 8 || trailer.getInt(0) != (int) crc.getValue() || trailer.getInt(4) != (int) inflated)
+                {
+                    throw new ZipException("corrupt gzip trailer at offset " + at);
+                }
+                return at + 8;
+            }
+            catch (DataFormatException | ZipException e)
+            {
+                if (tentative)
+                {
+                    return -1;
+                }
+                throw e instanceof ZipException ? (ZipException) e : new ZipException(e.getMessage() + " at offset " + start);
+            }
+        }
+
+        /** Keeps the word bytes before the first delimiter as the head, and tokenizes the rest */
+        private void feed(byte[] buf, int len)
+        {
+            int i = 0;
+            if (!delimited)
+            {
+                while (i < len && ByteTokenizer.isWordByte(buf[i]))
+                {
+                    i++;
+                }
+                if (headLength + i > headBuffer.length)
+                {
+                    headBuffer = Arrays.copyOf(headBuffer, Math.max(headBuffer.length * 2, headLength + i));
+                }
+                System.arraycopy(buf, 0, headBuffer, headLength, i);
+                headLength += i;
+                delimited = i < len;
+            }
+            tokenizer.feed(buf, i, len - i);
+            fed += len;
+            if (part != null)
+            {
+                part.counted(fed, sink.getTable());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * A HyperLogLog estimator of the number of distinct words, using 2^precision one-byte registers.
+ * The standard error of an estimate is about 1.04 / sqrt(2^precision), and two estimators of
+ * the same precision can be merged to estimate the distinct words of both inputs.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates an empty estimator
+     * @param precision The number of hash bits that pick a register, between 4 and 18
+     */
+    public HyperLogLog(int precision)
+    {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+        {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+    /**
+     * Records one word
+     * @param hash A well-mixed 64-bit hash of the word, such as {@link WordTable#hash64}
+     */
+    public void add(long hash)
+    {
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index])
+        {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Folds another estimator into this one
+     * @param other An estimator with the same precision
+     */
+    public void merge(HyperLogLog other)
+    {
+        if (other.precision != precision)
+        {
+            throw new IllegalArgumentException("cannot merge precision " + other.precision + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; i++)
+        {
+            if (other.registers[i] > registers[i])
+            {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /** @return The estimated number of distinct words */
+    public long estimate()
+    {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers)
+        {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+            {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0)
+        {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /** @return The standard error of an estimate, as a fraction of it */
+    public double relativeError()
+    {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    public int getPrecision()
+    {
+        return precision;
+    }
+}
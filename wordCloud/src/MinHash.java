@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * MinHash signatures of the sets of distinct words in documents. For each of k hash functions
+ * a signature keeps the smallest value over the document's words; two documents agree on each
+ * position with probability equal to the Jaccard similarity of their word sets, so comparing
+ * k ints estimates it without looking at the words.
+ * <p>
+ * The hash functions are fixed by k, so signatures made by any two instances of the same size
+ * can be compared, across runs too.
+ */
+public class MinHash {
+
+    private static final long SEED = 0x5deece66dL;
+
+    private final long[] seeds;
+
+    /**
+     * @param k The number of hash functions; the error of an estimate is about 1 / sqrt(k)
+     */
+    public MinHash(int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        seeds = new SplittableRandom(SEED).longs(k).toArray();
+    }
+
+    /** @return The length of a signature */
+    public int size()
+    {
+        return seeds.length;
+    }
+
+    /**
+     * @param profile The document's words
+     * @return The signature; all Integer.MAX_VALUE for a document without words
+     */
+    public int[] signature(WordProfile profile)
+    {
+        int k = seeds.length;
+        long[] min = new long[k];
+        Arrays.fill(min, Long.MAX_VALUE);
+        for (int w = 0; w < profile.size(); w++)
+        {
+            // the word hashes are already well mixed, so one multiply-xorshift per function is enough
+            long hash = profile.getHash(w);
+            for (int i = 0; i < k; i++)
+            {
+                long h = (hash ^ seeds[i]) * 0x9e3779b97f4a7c15L;
+                h ^= h >>> 29;
+                if (h < min[i])
+                {
+                    min[i] = h;
+                }
+            }
+        }
+        int[] signature = new int[k];
+        for (int i = 0; i < k; i++)
+        {
+            signature[i] = min[i] == Long.MAX_VALUE ? Integer.MAX_VALUE : (int) (min[i] >>> 32);
+        }
+        return signature;
+    }
+
+    /**
+     * @param a A signature
+     * @param b A signature of the same size
+     * @return The estimated Jaccard similarity of the two word sets
+     */
+    public static double similarity(int[] a, int[] b)
+    {
+        if (a.length != b.length)
+        {
+            throw new IllegalArgumentException("signatures differ in size: " + a.length + " and " + b.length);
+        }
+        int same = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            if (a[i] == b[i])
+            {
+                same++;
+            }
+        }
+        return (double) same / a.length;
+    }
+}
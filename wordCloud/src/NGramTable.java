@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * Counts n-grams under packed long keys in an open-addressing table, so no String is built
+ * per n-gram. A key is the id of the n-gram's first n - 1 words (a word id for bigrams, a
+ * bigram id for trigrams) in the high 32 bits and the id of its last word in the low 32 bits.
+ * Phrases are only spelled out when results are read through {@link #getWord}.
+ */
+public class NGramTable implements CountSource {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final CountSource prefixes;
+    private final CountSource words;
+
+    /** Hash slots holding id + 1, or 0 for an empty slot */
+    private int[] slots;
+    private int mask;
+
+    private long[] keys;
+    private int[] counts;
+    private int size;
+
+    /**
+     * Creates an empty table
+     * @param prefixes Where the ids in the high half of a key come from
+     * @param words Where the ids in the low half of a key come from
+     */
+    public NGramTable(CountSource prefixes, CountSource words)
+    {
+        this.prefixes = prefixes;
+        this.words = words;
+        slots = new int[DEFAULT_CAPACITY * 2];
+        mask = slots.length - 1;
+        keys = new long[DEFAULT_CAPACITY];
+        counts = new int[DEFAULT_CAPACITY];
+    }
+
+    /** @return The key of the n-gram made of a prefix followed by a word */
+    public static long pack(int prefix, int word)
+    {
+        return (long) prefix << 32 | (word & 0xffffffffL);
+    }
+
+    private static int hash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Adds one occurrence of an n-gram
+     * @param key The n-gram's {@link #pack packed} key
+     * @return The id of the n-gram
+     */
+    public int add(long key)
+    {
+        int i = hash(key) & mask;
+        while (slots[i] != 0)
+        {
+            int id = slots[i] - 1;
+            if (keys[id] == key)
+            {
+                counts[id]++;
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (size == keys.length)
+        {
+            grow();
+            return add(key);
+        }
+        int id = size++;
+        keys[id] = key;
+        counts[id] = 1;
+        slots[i] = id + 1;
+        return id;
+    }
+
+    private void grow()
+    {
+        int capacity = slots.length * 2;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        keys = Arrays.copyOf(keys, capacity / 2);
+        counts = Arrays.copyOf(counts, capacity / 2);
+        for (int id = 0; id < size; id++)
+        {
+            int i = hash(keys[id]) & mask;
+            while (slots[i] != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCount(int id)
+    {
+        return counts[id];
+    }
+
+    /** @return The n-gram's words joined by single spaces */
+    public String getWord(int id)
+    {
+        return prefixes.getWord((int) (keys[id] >>> 32)) + " " + words.getWord((int) keys[id]);
+    }
+
+    public int compareWords(int a, int b)
+    {
+        int c = prefixes.compareWords((int) (keys[a] >>> 32), (int) (keys[b] >>> 32));
+        return c != 0 ? c : words.compareWords((int) keys[a], (int) keys[b]);
+    }
+}
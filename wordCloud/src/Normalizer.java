@@ -0,0 +1,280 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Settings for cleaning up tokens before they are counted, so that "Dream", "dream" and
+ * "dream's" can be counted as one word and common words can be left out. The work is done on
+ * the token's bytes in a reusable scratch buffer, so normalizing allocates nothing per token.
+ * Setters return this so settings can be chained; {@link #wrap} applies them to a sink.
+ * <p>
+ * Case is folded by default. Folding works on bytes, so it only covers ASCII and the Latin-1
+ * capitals U+00C0 to U+00DE, A-grave to Thorn; other scripts are counted in the case they appear.
+ */
+public class Normalizer {
+
+    /** What to do with apostrophes inside a word */
+    public enum Apostrophes {
+        /** Leave them as they are: "don't", "King's" */
+        KEEP,
+        /** Drop a trailing possessive: "King's" becomes "King", "don't" stays */
+        STRIP_POSSESSIVE,
+        /** Delete every apostrophe: "don't" becomes "dont" */
+        REMOVE
+    }
+
+    public static final String[] ENGLISH_STOPWORDS = {
+        "a", "about", "after", "all", "also", "am", "an", "and", "any", "are", "as", "at", "be",
+        "because", "been", "but", "by", "can", "could", "did", "do", "does", "for", "from", "had",
+        "has", "have", "he", "her", "him", "his", "how", "i", "if", "in", "into", "is", "it", "its",
+        "me", "my", "no", "not", "of", "on", "one", "or", "our", "out", "she", "so", "some", "than",
+        "that", "the", "their", "them", "then", "there", "these", "they", "this", "to", "up", "us",
+        "was", "we", "were", "what", "when", "which", "who", "will", "with", "would", "you", "your"
+    };
+
+    private boolean lowerCase = true;
+    private boolean trimPunctuation = true;
+    private Apostrophes apostrophes = Apostrophes.KEEP;
+    private String[] stopwords = new String[0];
+
+    /**
+     * Folds ASCII and Latin-1 capitals to lower case; on unless turned off here.
+     * Letters of other scripts are left alone.
+     * @param lowerCase true to fold case
+     */
+    public Normalizer setLowerCase(boolean lowerCase)
+    {
+        this.lowerCase = lowerCase;
+        return this;
+    }
+
+    /**
+     * Trims apostrophes, curly quotes and dashes from the ends of words.
+     * ASCII punctuation already ends a word in the tokenizer, so this only has to catch the rest.
+     * @param trimPunctuation true to trim
+     */
+    public Normalizer setTrimPunctuation(boolean trimPunctuation)
+    {
+        this.trimPunctuation = trimPunctuation;
+        return this;
+    }
+
+    public Normalizer setApostrophes(Apostrophes apostrophes)
+    {
+        this.apostrophes = apostrophes;
+        return this;
+    }
+
+    /**
+     * Sets words to leave out. They are normalized with the other settings before being compared.
+     * @param words The words to leave out
+     */
+    public Normalizer setStopwords(Collection<String> words)
+    {
+        stopwords = words.toArray(new String[0]);
+        return this;
+    }
+
+    /** Leaves out {@link #ENGLISH_STOPWORDS} */
+    public Normalizer useEnglishStopwords()
+    {
+        stopwords = ENGLISH_STOPWORDS.clone();
+        return this;
+    }
+
+    /** @return A hash of these settings that is stable between runs */
+    int fingerprint()
+    {
+        String[] sorted = stopwords.clone();
+        Arrays.sort(sorted);
+        int h = Arrays.hashCode(sorted);
+        // 3 rather than 1 since Latin-1 capitals are folded too, so older snapshots are recounted
+        h = 31 * h + (lowerCase ? 3 : 2);
+        h = 31 * h + (trimPunctuation ? 1 : 2);
+        return 31 * h + apostrophes.ordinal() + 1;
+    }
+
+    /**
+     * Creates a sink that normalizes each token and passes it on, dropping stopwords and
+     * tokens left empty. Each call returns a new sink with its own scratch buffer, so every
+     * thread should wrap its own.
+     * @param downstream The sink that receives the normalized tokens
+     */
+    public TokenSink wrap(TokenSink downstream)
+    {
+        WordTable stop = new WordTable(stopwords.length);
+        Stage stage = new Stage(this, null, null);
+        for (String word : stopwords)
+        {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            stage.token(key, 0, key.length);
+            if (stage.length > 0)
+            {
+                stop.add(stage.scratch, 0, stage.length);
+            }
+        }
+        return new Stage(this, stop.size() > 0 ? stop : null, downstream);
+    }
+
+    private static class Stage implements TokenSink {
+
+        private final boolean lowerCase;
+        private final boolean trimPunctuation;
+        private final Apostrophes apostrophes;
+        private final WordTable stopwords;
+        private final TokenSink downstream;
+        private byte[] scratch = new byte[64];
+        private int length;
+
+        Stage(Normalizer settings, WordTable stopwords, TokenSink downstream)
+        {
+            lowerCase = settings.lowerCase;
+            trimPunctuation = settings.trimPunctuation;
+            apostrophes = settings.apostrophes;
+            this.stopwords = stopwords;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void token(byte[] buf, int off, int len)
+        {
+            if (len > scratch.length)
+            {
+                scratch = Arrays.copyOf(scratch, Math.max(len, scratch.length * 2));
+            }
+            int start = off;
+            int end = off + len;
+            if (trimPunctuation)
+            {
+                int skip;
+                while (start < end && (skip = punctuationAt(buf, start, end)) > 0)
+                {
+                    start += skip;
+                }
+                while (start < end && (skip = punctuationBefore(buf, start, end)) > 0)
+                {
+                    end -= skip;
+                }
+            }
+
+            int n = 0;
+            for (int i = start; i < end; i++)
+            {
+                byte b = buf[i];
+                if (apostrophes == Apostrophes.REMOVE)
+                {
+                    int width = apostropheAt(buf, i, end);
+                    if (width > 0)
+                    {
+                        i += width - 1;
+                        continue;
+                    }
+                }
+                if (lowerCase)
+                {
+                    if (b >= 'A' && b <= 'Z')
+                    {
+                        b += 'a' - 'A';
+                    }
+                    else if (b == (byte) 0xC3 && i + 1 < end && isLatin1Capital(buf[i + 1]))
+                    {
+                        // C3 80..9E are U+00C0..U+00DE; their small letters are 0x20 further on
+                        scratch[n++] = b;
+                        scratch[n++] = (byte) (buf[++i] + 0x20);
+                        continue;
+                    }
+                }
+                scratch[n++] = b;
+            }
+
+            if (apostrophes == Apostrophes.STRIP_POSSESSIVE && n >= 2 && (scratch[n - 1] == 's' || scratch[n - 1] == 'S'))
+            {
+                int width = apostropheBefore(scratch, 0, n - 1);
+                if (width > 0)
+                {
+                    n -= width + 1;
+                }
+            }
+
+            length = n;
+            if (downstream == null || n == 0)
+            {
+                return;
+            }
+            if (stopwords != null && stopwords.find(scratch, 0, n) >= 0)
+            {
+                return;
+            }
+            downstream.token(scratch, 0, n);
+        }
+    }
+
+    /** @return true for the second UTF-8 byte of U+00C0..U+00DE, less the multiplication sign U+00D7 */
+    private static boolean isLatin1Capital(byte b)
+    {
+        return b >= (byte) 0x80 && b <= (byte) 0x9E && b != (byte) 0x97;
+    }
+
+    /** @return The width of an apostrophe (' or U+2019) starting at i, or 0 */
+    private static int apostropheAt(byte[] buf, int i, int end)
+    {
+        if (buf[i] == '\'')
+        {
+            return 1;
+        }
+        if (i + 2 < end && buf[i] == (byte) 0xE2 && buf[i + 1] == (byte) 0x80 && buf[i + 2] == (byte) 0x99)
+        {
+            return 3;
+        }
+        return 0;
+    }
+
+    /** @return The width of an apostrophe ending just before end, or 0 */
+    private static int apostropheBefore(byte[] buf, int start, int end)
+    {
+        if (end - 1 >= start && buf[end - 1] == '\'')
+        {
+            return 1;
+        }
+        if (end - 3 >= start && buf[end - 3] == (byte) 0xE2 && buf[end - 2] == (byte) 0x80 && buf[end - 1] == (byte) 0x99)
+        {
+            return 3;
+        }
+        return 0;
+    }
+
+    /** Curly quotes and dashes in UTF-8 are E2 80 xx with xx one of these */
+    private static boolean isPunctuationTail(byte b)
+    {
+        return b == (byte) 0x93 || b == (byte) 0x94 || b == (byte) 0x98 || b == (byte) 0x99
+                || b == (byte) 0x9C || b == (byte) 0x9D || b == (byte) 0xA6;
+    }
+
+    /** @return The width of a punctuation mark starting at i, or 0 */
+    private static int punctuationAt(byte[] buf, int i, int end)
+    {
+        if (buf[i] == '\'')
+        {
+            return 1;
+        }
+        if (i + 2 < end && buf[i] == (byte) 0xE2 && buf[i + 1] == (byte) 0x80 && isPunctuationTail(buf[i + 2]))
+        {
+            return 3;
+        }
+        return 0;
+    }
+
+    /** @return The width of a punctuation mark ending just before end, or 0 */
+    private static int punctuationBefore(byte[] buf, int start, int end)
+    {
+        if (buf[end - 1] == '\'')
+        {
+            return 1;
+        }
+        if (end - 3 >= start && buf[end - 3] == (byte) 0xE2 && buf[end - 2] == (byte) 0x80 && isPunctuationTail(buf[end - 1]))
+        {
+            return 3;
+        }
+        return 0;
+    }
+}
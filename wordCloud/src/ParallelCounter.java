@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the words of a file on a ForkJoinPool.
+ * The file is cut into byte ranges that start and end between words, each range is counted
+ * into its own {@link CountingSink}, and the sinks are merged pairwise as the tasks join.
+ */
+public class ParallelCounter {
+
+    /** Ranges smaller than this are not worth a task of their own */
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Counts every word in a file
+     * @param file The file to count
+     * @param options How to count; its parallelism is the number of worker threads
+     * @return A sink holding the same counts a sequential load would produce
+     */
+    public static CountingSink count(Path file, WordCloudOptions options) throws IOException
+    {
+        return count(file, options, null);
+    }
+
+    /**
+     * Counts every word in a file, each range reporting progress as it goes
+     * @param progress Takes the snapshots, or null
+     */
+    static CountingSink count(Path file, WordCloudOptions options, ProgressPublisher progress) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            int parallelism = options.getParallelism();
+            long[] bounds = split(channel, parallelism * CHUNKS_PER_THREAD);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try
+            {
+                return pool.invoke(new CountTask(channel, bounds, 0, bounds.length - 1, options, progress));
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Cuts a file into roughly equal ranges whose edges fall between words
+     * @param channel An open channel on the file
+     * @param chunks The number of ranges wanted
+     * @return The range edges, starting at 0 and ending at the file size
+     */
+    static long[] split(FileChannel channel, int chunks) throws IOException
+    {
+        long size = channel.size();
+        chunks = (int) Math.max(1, Math.min(chunks, size / MIN_CHUNK));
+        long[] bounds = new long[chunks + 1];
+        bounds[chunks] = size;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int c = 1; c < chunks; c++)
+        {
+            long pos = Math.max(bounds[c - 1], size / chunks * c);
+            bounds[c] = alignToBoundary(channel, pos, size, probe);
+        }
+        return bounds;
+    }
+
+    /** Moves a position forward until it no longer falls inside a word */
+    private static long alignToBoundary(FileChannel channel, long pos, long size, ByteBuffer probe) throws IOException
+    {
+        if (pos == 0)
+        {
+            return 0;
+        }
+        long at = pos - 1;
+        while (at < size)
+        {
+            probe.clear();
+            int n = channel.read(probe, at);
+            for (int i = 0; i < n; i++)
+            {
+                if (!ByteTokenizer.isWordByte(probe.get(i)))
+                {
+                    return at + i + 1;
+                }
+            }
+            at += Math.max(n, 1);
+        }
+        return size;
+    }
+
+    private static class CountTask extends RecursiveTask<CountingSink> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+        private final WordCloudOptions options;
+        private final ProgressPublisher progress;
+
+        CountTask(FileChannel channel, long[] bounds, int lo, int hi, WordCloudOptions options, ProgressPublisher progress)
+        {
+            this.options = options;
+            this.progress = progress;
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected CountingSink compute()
+        {
+            if (hi - lo == 1)
+            {
+                CountingSink sink = new CountingSink(options);
+                ProgressPublisher.Part part = progress == null ? null : progress.part();
+                try
+                {
+                    ByteTokenizer.tokenize(channel, bounds[lo], bounds[hi], options.wrap(sink),
+                                           part == null ? null : bytes -> part.counted(bytes, sink.getTable()));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                if (part != null)
+                {
+                    // the sink is merged into another once this returns
+                    part.finish(sink.getTable());
+                }
+                return sink;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            CountTask right = new CountTask(channel, bounds, mid, hi, options, progress);
+            right.fork();
+            CountingSink left = new CountTask(channel, bounds, lo, mid, options, progress).compute();
+            CountingSink other = right.join();
+            if (other.getTable().size() > left.getTable().size())
+            {
+                other.addAll(left);
+                return other;
+            }
+            left.addAll(other);
+            return left;
+        }
+    }
+}
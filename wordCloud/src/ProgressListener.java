@@ -0,0 +1,24 @@
+import java.util.List;
+
+/**
+ * Receives the top hits of a {@link WordCloud} while it loads, so a long load shows results
+ * before it finishes. Snapshots part way through are approximate: a single-threaded load ranks
+ * the text counted so far, while parallel and spilling loads add up the heaviest words of each
+ * thread or spilled run, which can miss a word spread thinly over them. The last call always
+ * has the complete counts.
+ * <p>
+ * A listener that throws gets no further calls, and the load fails with an IOException.
+ * <p>
+ * Snapshots arrive on a background thread and the last call on the loading thread, but never
+ * two at once, and always in order.
+ */
+public interface ProgressListener {
+
+    /**
+     * @param topHits The most frequent words so far, most frequent first
+     * @param bytesCounted The bytes of text counted so far
+     * @param totalBytes The size of the text, or -1 when it is not known up front, as with gzip input
+     * @param exact true for the last call, made once everything is counted
+     */
+    void progress(List<Word> topHits, long bytesCounted, long totalBytes, boolean exact);
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes the progress snapshots of one load for a {@link ProgressListener}. Each counting
+ * thread reports through a {@link Part} of its own after every block. Freezing copies a table's
+ * counts, so a part only freezes its tables when a snapshot is due on its own thread, or on
+ * its first block after another part's snapshot. The background thread then only reads copies
+ * made by their counting threads, and a view never sees counts merged in after it was taken.
+ * When a snapshot is due the background thread ranks the latest view of every part and calls
+ * the listener. One part is ranked directly; several, as with a parallel or spilling load, are
+ * merged from each part's heaviest words, so a word spread thinly over many parts can be
+ * missing or undercounted, and the other parts' views can be one interval behind.
+ * <p>
+ * While the background thread is still busy with one snapshot the next is put off rather than
+ * waited for, so counting never stalls on ranking or on the listener. If the listener throws,
+ * no more snapshots are taken and {@link #finish} reports the failure, whatever it threw.
+ */
+class ProgressPublisher {
+
+    /** Each part's top words are ranked this many times deeper than the top-K size before merging */
+    static final int CANDIDATE_FACTOR = 4;
+
+    private final ProgressListener listener;
+    private final int topK;
+    private final long everyBytes;
+    private final long everyNanos;
+    private final long totalBytes;
+    private final List<Part> parts = new CopyOnWriteArrayList<>();
+    private final AtomicLong bytesCounted = new AtomicLong();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile long lastBytes;
+    private volatile long lastTime = System.nanoTime();
+    private volatile Throwable failure;
+    /** Created with the first snapshot; guarded by this */
+    private ExecutorService executor;
+    private boolean closed;
+
+    /**
+     * @param options The listener, interval and top-K size to publish with
+     * @param totalBytes The size of the text, or -1 if it is not known
+     */
+    ProgressPublisher(WordCloudOptions options, long totalBytes)
+    {
+        listener = options.getProgressListener();
+        topK = options.getTopK();
+        everyBytes = options.getProgressBytes();
+        everyNanos = TimeUnit.MILLISECONDS.toNanos(options.getProgressMillis());
+        this.totalBytes = totalBytes;
+    }
+
+    /** @return A new part, for one counting thread to report through */
+    Part part()
+    {
+        Part part = new Part();
+        parts.add(part);
+        return part;
+    }
+
+    /** One thread's share of the counting and the latest view of it */
+    class Part {
+
+        private long bytes;
+        /** Frozen views of the tables still being counted into, or null once finished */
+        private volatile CountSource[] views = new CountSource[0];
+        /** Set when a snapshot has used the views, so the part freezes again on its next block */
+        private volatile boolean stale = true;
+        /** The heaviest words, ranked once the part is finished */
+        private volatile List<Word> top;
+
+        private Part()
+        {
+        }
+
+        /**
+         * Called by the part's thread between blocks
+         * @param bytes The bytes of text this part has counted so far
+         * @param tables The tables this part counts into
+         */
+        void counted(long bytes, Vocabulary... tables)
+        {
+            long total = bytesCounted.addAndGet(bytes - this.bytes);
+            this.bytes = bytes;
+            boolean publish = claimIfDue(total);
+            if (publish || stale)
+            {
+                CountSource[] frozen = new CountSource[tables.length];
+                for (int i = 0; i < tables.length; i++)
+                {
+                    frozen[i] = tables[i].freeze();
+                }
+                views = frozen;
+                stale = false;
+            }
+            if (publish)
+            {
+                publish(total, this);
+            }
+        }
+
+        /**
+         * Ranks the part's words for good; called by its thread once it has counted everything,
+         * before the table is merged elsewhere and stops being its own
+         * @param table The table this part counted into
+         */
+        void finish(Vocabulary table)
+        {
+            top = TopK.select(table, topK * CANDIDATE_FACTOR);
+            views = null;
+        }
+    }
+
+    /** @return Whether a snapshot is due and this caller gets to take it */
+    private boolean claimIfDue(long bytes)
+    {
+        long now = System.nanoTime();
+        boolean due = (everyBytes > 0 && bytes - lastBytes >= everyBytes) || (everyNanos > 0 && now - lastTime >= everyNanos);
+        if (!due || failure != null || !busy.compareAndSet(false, true))
+        {
+            return false;
+        }
+        lastBytes = bytes;
+        lastTime = now;
+        return true;
+    }
+
+    /** @param owner The part taking the snapshot, whose views were frozen just now */
+    private void publish(long bytes, Part owner)
+    {
+        List<CountSource> views = new ArrayList<>();
+        List<List<Word>> ranked = new ArrayList<>();
+        for (Part part : parts)
+        {
+            CountSource[] partViews = part.views;
+            if (partViews != null)
+            {
+                views.addAll(List.of(partViews));
+                // the owner freezes anyway when it takes the next snapshot; alone, it always will
+                part.stale = part != owner || parts.size() > 1;
+            }
+            else
+            {
+                ranked.add(part.top);
+            }
+        }
+        if (!submit(() -> snapshot(views, ranked, bytes)))
+        {
+            busy.set(false);
+        }
+    }
+
+    private void snapshot(List<CountSource> views, List<List<Word>> ranked, long bytes)
+    {
+        try
+        {
+            List<Word> topHits;
+            if (views.size() == 1 && ranked.isEmpty())
+            {
+                topHits = TopK.select(views.get(0), topK);
+            }
+            else
+            {
+                for (CountSource view : views)
+                {
+                    ranked.add(TopK.select(view, topK * CANDIDATE_FACTOR));
+                }
+                topHits = merge(ranked);
+            }
+            listener.progress(topHits, bytes, totalBytes, false);
+        }
+        catch (Throwable e)
+        {
+            // an Error too, since nothing else would see it on this thread
+            failure = e;
+        }
+        finally
+        {
+            busy.set(false);
+        }
+    }
+
+    /** Adds up the counts of each word over the ranked lists and ranks the sums */
+    private List<Word> merge(List<List<Word>> ranked)
+    {
+        Map<String, Long> sums = new HashMap<>();
+        for (List<Word> words : ranked)
+        {
+            for (Word word : words)
+            {
+                sums.merge(word.getWord(), (long) word.getCount(), Long::sum);
+            }
+        }
+        List<Word> merged = new ArrayList<>(sums.size());
+        for (Map.Entry<String, Long> sum : sums.entrySet())
+        {
+            merged.add(new Word(sum.getKey(), (int) Math.min(sum.getValue(), Integer.MAX_VALUE)));
+        }
+        merged.sort((a, b) -> a.getCount() != b.getCount() ? Integer.compare(b.getCount(), a.getCount()) : a.getWord().compareTo(b.getWord()));
+        return merged.subList(0, Math.min(topK, merged.size()));
+    }
+
+    /** @return false if the publisher is already closed */
+    private synchronized boolean submit(Runnable snapshot)
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (executor == null)
+        {
+            executor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "wordcloud-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        try
+        {
+            executor.execute(snapshot);
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the snapshot in progress, if any, then reports the exact result
+     * @param topHits The final top hits
+     * @throws IOException If the listener failed on an earlier snapshot
+     */
+    void finish(List<Word> topHits) throws IOException
+    {
+        ExecutorService running;
+        synchronized (this)
+        {
+            close();
+            running = executor;
+        }
+        if (running != null)
+        {
+            try
+            {
+                running.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a progress snapshot");
+            }
+        }
+        if (failure != null)
+        {
+            throw new IOException("progress listener failed", failure);
+        }
+        listener.progress(topHits, totalBytes >= 0 ? totalBytes : bytesCounted.get(), totalBytes, true);
+    }
+
+    /** Lets the background thread end once it is idle; safe to call more than once */
+    synchronized void close()
+    {
+        closed = true;
+        if (executor != null)
+        {
+            executor.shutdown();
+        }
+    }
+}
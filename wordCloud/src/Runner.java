@@ -1,8 +1,19 @@
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 public class Runner {
-    public static void main(String[] args) throws FileNotFoundException
+    /**
+     * Prints the word cloud of dream.txt, or with a directory argument, the top hits of every
+     * file under it followed by the totals over all of them
+     */
+    public static void main(String[] args) throws IOException
     {
+        if (args.length > 0)
+        {
+            BatchWordCloud batch = new BatchWordCloud(args[0], (file, topHits) -> System.out.println(file + "\t" + topHits));
+            batch.printInfo();
+            return;
+        }
         WordCloud tester = new WordCloud("dream.txt");
+        tester.printInfo();
     }
 }
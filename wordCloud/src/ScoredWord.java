@@ -0,0 +1,35 @@
+/**
+ * A word with a real-valued score, such as a TF-IDF weight, alongside its raw count
+ */
+public class ScoredWord {
+    private String word;
+    private int count;
+    private double score;
+
+    public ScoredWord(String w, int c, double s)
+    {
+        word = w;
+        count = c;
+        score = s;
+    }
+
+    public String getWord()
+    {
+        return word;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public double getScore()
+    {
+        return score;
+    }
+
+    public String toString()
+    {
+        return word + "\t\t" + String.format("%.4f", score);
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds similar documents among many without comparing every pair. Each document's
+ * {@link MinHash} signature is cut into bands of a few rows, and documents whose signatures
+ * agree on a whole band land in the same bucket. Only documents sharing a bucket are compared,
+ * by the cosine of their {@link WordProfile}s, so the work grows with the number of documents
+ * and of similar pairs rather than with the square of the documents.
+ * <p>
+ * Two documents whose word sets have Jaccard similarity s share a bucket with probability
+ * 1 - (1 - s^rows)^bands, which rises steeply around s = (1 / bands)^(1 / rows): about 0.42
+ * with the default 32 bands of 4 rows. More rows raise that point, more bands lower it.
+ */
+public class SimilarityIndex {
+
+    public static final int DEFAULT_BANDS = 32;
+    public static final int DEFAULT_ROWS = 4;
+
+    /** A pair of similar documents */
+    public static class Match {
+
+        private final int first;
+        private final int second;
+        private final double cosine;
+
+        Match(int first, int second, double cosine)
+        {
+            this.first = first;
+            this.second = second;
+            this.cosine = cosine;
+        }
+
+        public int getFirst()
+        {
+            return first;
+        }
+
+        public int getSecond()
+        {
+            return second;
+        }
+
+        public double getCosine()
+        {
+            return cosine;
+        }
+
+        public String toString()
+        {
+            return first + "\t" + second + "\t" + String.format("%.4f", cosine);
+        }
+    }
+
+    private final int bands;
+    private final int rows;
+    private final MinHash minHash;
+    private final List<String> names = new ArrayList<>();
+    private final List<WordProfile> profiles = new ArrayList<>();
+    private final List<int[]> signatures = new ArrayList<>();
+    /** Per band, the documents by the hash of their rows in that band; each list is prefixed by its size */
+    private final List<Map<Long, int[]>> buckets = new ArrayList<>();
+
+    public SimilarityIndex()
+    {
+        this(DEFAULT_BANDS, DEFAULT_ROWS);
+    }
+
+    /**
+     * @param bands The number of bands a signature is cut into
+     * @param rows The number of signature positions per band
+     */
+    public SimilarityIndex(int bands, int rows)
+    {
+        if (bands < 1 || rows < 1)
+        {
+            throw new IllegalArgumentException("bands and rows must be at least 1: " + bands + ", " + rows);
+        }
+        this.bands = bands;
+        this.rows = rows;
+        minHash = new MinHash(bands * rows);
+        for (int b = 0; b < bands; b++)
+        {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Adds a document
+     * @param name The name of the document
+     * @param profile The document's counts
+     * @return The id of the document
+     */
+    public int add(String name, WordProfile profile)
+    {
+        int doc = names.size();
+        int[] signature = minHash.signature(profile);
+        names.add(name);
+        profiles.add(profile);
+        signatures.add(signature);
+        for (int b = 0; b < bands; b++)
+        {
+            buckets.get(b).merge(bandHash(signature, b), new int[] {1, doc}, SimilarityIndex::append);
+        }
+        return doc;
+    }
+
+    /**
+     * Adds a counted document
+     * @param name The name of the document
+     * @param cloud The document's word cloud
+     * @return The id of the document
+     */
+    public int add(String name, WordCloud cloud)
+    {
+        return add(name, cloud.getProfile());
+    }
+
+    private static int[] append(int[] bucket, int[] single)
+    {
+        int size = bucket[0];
+        if (size + 1 == bucket.length)
+        {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        bucket[++size] = single[1];
+        bucket[0] = size;
+        return bucket;
+    }
+
+    private long bandHash(int[] signature, int band)
+    {
+        long h = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++)
+        {
+            h = (h ^ signature[i]) * 0x100000001b3L;
+            h ^= h >>> 32;
+        }
+        return h;
+    }
+
+    /** @return Whether two signatures agree on a whole band before the given one, so the pair was already found */
+    private boolean sharedEarlierBand(int[] a, int[] b, int band)
+    {
+        for (int earlier = 0; earlier < band; earlier++)
+        {
+            int from = earlier * rows;
+            if (Arrays.equals(a, from, from + rows, b, from, from + rows))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the documents similar to an indexed one
+     * @param doc The id of the document
+     * @param minCosine The lowest cosine similarity to report
+     * @return The similar documents as matches with doc first, most similar first
+     */
+    public List<Match> findSimilar(int doc, double minCosine)
+    {
+        int[] signature = signatures.get(doc);
+        WordProfile profile = profiles.get(doc);
+        boolean[] seen = new boolean[names.size()];
+        seen[doc] = true;
+        List<Match> matches = new ArrayList<>();
+        for (int b = 0; b < bands; b++)
+        {
+            int[] bucket = buckets.get(b).get(bandHash(signature, b));
+            for (int i = 1; i <= bucket[0]; i++)
+            {
+                int other = bucket[i];
+                if (!seen[other])
+                {
+                    seen[other] = true;
+                    double cosine = profile.cosine(profiles.get(other));
+                    if (cosine >= minCosine)
+                    {
+                        matches.add(new Match(doc, other, cosine));
+                    }
+                }
+            }
+        }
+        matches.sort((x, y) -> Double.compare(y.cosine, x.cosine));
+        return matches;
+    }
+
+    /**
+     * Finds every pair of similar documents
+     * @param minCosine The lowest cosine similarity to report
+     * @return Each pair once, lower id first, most similar first
+     */
+    public List<Match> similarPairs(double minCosine)
+    {
+        List<Match> matches = new ArrayList<>();
+        for (int b = 0; b < bands; b++)
+        {
+            for (int[] bucket : buckets.get(b).values())
+            {
+                for (int i = 1; i <= bucket[0]; i++)
+                {
+                    int first = bucket[i];
+                    for (int j = i + 1; j <= bucket[0]; j++)
+                    {
+                        int second = bucket[j];
+                        if (sharedEarlierBand(signatures.get(first), signatures.get(second), b))
+                        {
+                            continue;
+                        }
+                        double cosine = profiles.get(first).cosine(profiles.get(second));
+                        if (cosine >= minCosine)
+                        {
+                            matches.add(new Match(first, second, cosine));
+                        }
+                    }
+                }
+            }
+        }
+        matches.sort((x, y) -> Double.compare(y.cosine, x.cosine));
+        return matches;
+    }
+
+    /**
+     * @param first The id of a document
+     * @param second The id of another document
+     * @return The estimated Jaccard similarity of their word sets
+     */
+    public double estimateJaccard(int first, int second)
+    {
+        return MinHash.similarity(signatures.get(first), signatures.get(second));
+    }
+
+    public String getName(int doc)
+    {
+        return names.get(doc);
+    }
+
+    /** @return The number of documents indexed */
+    public int size()
+    {
+        return names.size();
+    }
+}
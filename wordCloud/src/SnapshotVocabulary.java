@@ -0,0 +1,399 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A counted vocabulary saved to disk and read back by memory-mapping it, so reopening costs
+ * a header check instead of a full re-tokenization. Words are stored sorted by their UTF-8
+ * bytes, so ids are in word order and lookups are binary searches.
+ * <p>
+ * Layout, big-endian: a 48-byte header (magic, version, source size, source modification
+ * time, total words, settings fingerprint, word count, string bytes), then word count + 1
+ * int offsets into the string bytes, then word count int counts, then the string bytes.
+ * A snapshot must fit in one mapping (2 GB).
+ */
+public class SnapshotVocabulary implements WordCounts {
+
+    private static final int MAGIC = 0x5743534E;
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+
+    private final ByteBuffer buffer;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final long total;
+    private final int fingerprint;
+    private final int size;
+    private final int countsAt;
+    private final int bytesAt;
+
+    private SnapshotVocabulary(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("not a word cloud snapshot");
+        }
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("unsupported snapshot version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        sourceSize = buffer.getLong(8);
+        sourceModified = buffer.getLong(16);
+        total = buffer.getLong(24);
+        fingerprint = buffer.getInt(32);
+        size = buffer.getInt(36);
+        int stringBytes = buffer.getInt(40);
+        if (size < 0 || stringBytes < 0 || HEADER_SIZE + 8L * size + 4 + stringBytes != buffer.capacity())
+        {
+            throw new IOException("truncated snapshot");
+        }
+        countsAt = HEADER_SIZE + (size + 1) * 4;
+        bytesAt = countsAt + size * 4;
+        // every later read trusts the offsets, so a corrupt table is caught here rather than mid-query
+        int previous = 0;
+        for (int id = 0; id <= size; id++)
+        {
+            int offset = buffer.getInt(HEADER_SIZE + id * 4);
+            if (offset < previous || offset > stringBytes || (id == 0 && offset != 0))
+            {
+                throw new IOException("corrupt snapshot offset table");
+            }
+            previous = offset;
+        }
+        if (previous != stringBytes)
+        {
+            throw new IOException("corrupt snapshot offset table");
+        }
+    }
+
+    /**
+     * Maps a snapshot file
+     * @param snapshot The snapshot to open
+     * @return The vocabulary, backed by the mapped file
+     * @throws IOException if the file is not a snapshot of a supported version
+     */
+    public static SnapshotVocabulary open(Path snapshot) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("snapshot larger than 2 GB");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SnapshotVocabulary(mapped);
+        }
+    }
+
+    /**
+     * Opens a snapshot only if it was taken from the source file as it is now
+     * @param snapshot The snapshot to open
+     * @param source The file the snapshot was counted from
+     * @param fingerprint The fingerprint of the settings the caller would count with
+     * @return The vocabulary, or null if the snapshot is missing, unreadable, corrupt or stale
+     */
+    public static SnapshotVocabulary openIfFresh(Path snapshot, Path source, int fingerprint) throws IOException
+    {
+        if (!Files.isRegularFile(snapshot))
+        {
+            return null;
+        }
+        SnapshotVocabulary vocabulary;
+        try
+        {
+            vocabulary = open(snapshot);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // a snapshot is only a cache: whatever is wrong with it, counting again is the answer
+            return null;
+        }
+        boolean fresh = vocabulary.sourceSize == Files.size(source)
+                && vocabulary.sourceModified == Files.getLastModifiedTime(source).toMillis()
+                && vocabulary.fingerprint == fingerprint;
+        return fresh ? vocabulary : null;
+    }
+
+    /**
+     * Writes a vocabulary as a snapshot, replacing any existing file atomically
+     * @param snapshot Where to write
+     * @param words The counted words
+     * @param source The file the words were counted from
+     * @param fingerprint The fingerprint of the settings the words were counted with
+     */
+    public static void write(Path snapshot, WordCounts words, Path source, int fingerprint) throws IOException
+    {
+        int n = words.size();
+        Integer[] order = new Integer[n];
+        long stringBytes = 0;
+        for (int id = 0; id < n; id++)
+        {
+            order[id] = id;
+            stringBytes += words.getKeyLength(id);
+        }
+        if (HEADER_SIZE + 8L * n + 4 + stringBytes > Integer.MAX_VALUE)
+        {
+            throw new IOException("vocabulary too large for a snapshot");
+        }
+        Arrays.sort(order, words::compareWords);
+
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)))
+        {
+            out.write(header(source, words.getTotal(), fingerprint, n, (int) stringBytes).array());
+
+            int offset = 0;
+            out.writeInt(offset);
+            for (int id : order)
+            {
+                offset += words.getKeyLength(id);
+                out.writeInt(offset);
+            }
+            for (int id : order)
+            {
+                out.writeInt(words.getCount(id));
+            }
+            byte[] key = new byte[64];
+            for (int id : order)
+            {
+                int len = words.getKeyLength(id);
+                if (len > key.length)
+                {
+                    key = new byte[Math.max(len, key.length * 2)];
+                }
+                words.copyKey(id, key, 0);
+                out.write(key, 0, len);
+            }
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer header(Path source, long total, int fingerprint, int n, int stringBytes) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(Files.size(source));
+        header.putLong(Files.getLastModifiedTime(source).toMillis());
+        header.putLong(total);
+        header.putInt(fingerprint);
+        header.putInt(n);
+        header.putInt(stringBytes);
+        header.putInt(0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes a snapshot from words that arrive already in byte order, so they never have to be
+     * held in memory. Offsets, counts and string bytes are streamed to three side files, which
+     * are joined behind the header once the last word is in.
+     */
+    static class SortedWriter implements Closeable {
+
+        private final Path snapshot;
+        private final Path source;
+        private final int fingerprint;
+        private final Path[] parts;
+        private final DataOutputStream offsets;
+        private final DataOutputStream counts;
+        private final DataOutputStream bytes;
+        private long stringBytes;
+        private long total;
+        private int size;
+
+        /**
+         * @param snapshot Where to write
+         * @param source The file the words were counted from
+         * @param fingerprint The fingerprint of the settings the words were counted with
+         */
+        SortedWriter(Path snapshot, Path source, int fingerprint) throws IOException
+        {
+            this.snapshot = snapshot;
+            this.source = source;
+            this.fingerprint = fingerprint;
+            parts = new Path[3];
+            DataOutputStream[] streams = new DataOutputStream[3];
+            for (int i = 0; i < 3; i++)
+            {
+                parts[i] = snapshot.resolveSibling(snapshot.getFileName() + ".part" + i);
+                streams[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(parts[i]), 1 << 16));
+            }
+            offsets = streams[0];
+            counts = streams[1];
+            bytes = streams[2];
+            offsets.writeInt(0);
+        }
+
+        /**
+         * Appends the next word, which must sort after the previous one
+         * @param key The word's UTF-8 bytes
+         * @param len The length of the word
+         * @param count The word's count
+         */
+        void add(byte[] key, int len, int count) throws IOException
+        {
+            stringBytes += len;
+            if (HEADER_SIZE + 8L * (size + 1) + 4 + stringBytes > Integer.MAX_VALUE)
+            {
+                throw new IOException("vocabulary too large for a snapshot");
+            }
+            bytes.write(key, 0, len);
+            offsets.writeInt((int) stringBytes);
+            counts.writeInt(count);
+            total += count;
+            size++;
+        }
+
+        /** Joins the parts behind the header and moves the result into place atomically */
+        void finish() throws IOException
+        {
+            offsets.close();
+            counts.close();
+            bytes.close();
+            Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                ByteBuffer header = header(source, total, fingerprint, size, (int) stringBytes);
+                while (header.hasRemaining())
+                {
+                    out.write(header);
+                }
+                for (Path part : parts)
+                {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ))
+                    {
+                        long position = 0;
+                        while (position < in.size())
+                        {
+                            position += in.transferTo(position, in.size() - position, out);
+                        }
+                    }
+                }
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /** Deletes the side files */
+        public void close() throws IOException
+        {
+            offsets.close();
+            counts.close();
+            bytes.close();
+            for (Path part : parts)
+            {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    public int find(byte[] buf, int off, int len)
+    {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = compareTo(mid, buf, off, len);
+            if (c < 0)
+            {
+                lo = mid + 1;
+            }
+            else if (c > 0)
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTo(int id, byte[] buf, int off, int len)
+    {
+        int start = offset(id);
+        int length = offset(id + 1) - start;
+        for (int i = 0; i < Math.min(length, len); i++)
+        {
+            int d = (buffer.get(bytesAt + start + i) & 0xff) - (buf[off + i] & 0xff);
+            if (d != 0)
+            {
+                return d;
+            }
+        }
+        return length - len;
+    }
+
+    private int offset(int id)
+    {
+        return buffer.getInt(HEADER_SIZE + id * 4);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public int getCount(int id)
+    {
+        return buffer.getInt(countsAt + id * 4);
+    }
+
+    public String getWord(int id)
+    {
+        byte[] key = new byte[getKeyLength(id)];
+        copyKey(id, key, 0);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    public int getKeyLength(int id)
+    {
+        return offset(id + 1) - offset(id);
+    }
+
+    public void copyKey(int id, byte[] dst, int off)
+    {
+        int start = offset(id);
+        buffer.get(bytesAt + start, dst, off, offset(id + 1) - start);
+    }
+
+    /** Ids are assigned in word order, so comparing words is comparing ids */
+    public int compareWords(int a, int b)
+    {
+        return Integer.compare(a, b);
+    }
+
+    /** Snapshots are searched, not hashed */
+    public double getLoadFactor()
+    {
+        return 0;
+    }
+
+    public double getAverageProbeLength()
+    {
+        return 0;
+    }
+
+    public int getMaxProbeLength()
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,267 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Space-Saving heavy-hitters summary: a fixed number of counters that track the most
+ * frequent words of a stream. When a word without a counter arrives, it takes over the
+ * smallest counter and inherits that count as its possible error, so every reported count
+ * over-estimates the true count by at most its error, and every error is at most N/capacity.
+ * With a {@link CountMinSketch}, a newly admitted word starts from the sketch's estimate
+ * instead, which is usually far below the smallest counter once the stream is long.
+ */
+public class SpaceSaving implements TokenSink {
+
+    private final int capacity;
+    private final CountMinSketch sketch;
+
+    private final byte[][] keys;
+    private final int[] keyLengths;
+    private final int[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    /** Hash slots holding counter + 1, or 0 for an empty slot */
+    private final int[] slots;
+    private final int mask;
+
+    /** Min-heap of counters ordered by count, and each counter's place in it */
+    private final int[] heap;
+    private final int[] heapIndex;
+
+    /**
+     * Creates a summary without a sketch
+     * @param capacity The number of counters
+     */
+    public SpaceSaving(int capacity)
+    {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a summary
+     * @param capacity The number of counters
+     * @param sketch A sketch used to estimate the count of newly admitted words, or null
+     */
+    public SpaceSaving(int capacity, CountMinSketch sketch)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.sketch = sketch;
+        keys = new byte[capacity][];
+        keyLengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        slots = new int[Math.max(tableSize, 2)];
+        mask = slots.length - 1;
+        heap = new int[capacity];
+        heapIndex = new int[capacity];
+    }
+
+    @Override
+    public void token(byte[] buf, int off, int len)
+    {
+        add(buf, off, len);
+    }
+
+    /**
+     * Counts one occurrence of a word given as UTF-8 bytes
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     */
+    public void add(byte[] buf, int off, int len)
+    {
+        addHashed(buf, off, len, WordTable.hash64(buf, off, len));
+    }
+
+    /**
+     * Counts one occurrence of a word whose hash the caller has already computed
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param hash64 The word's {@link WordTable#hash64}
+     */
+    public void addHashed(byte[] buf, int off, int len, long hash64)
+    {
+        total++;
+        long estimate = sketch != null ? sketch.add(hash64) : Long.MAX_VALUE;
+        int h = (int) hash64;
+
+        int i = h & mask;
+        while (slots[i] != 0)
+        {
+            int c = slots[i] - 1;
+            if (hashes[c] == h && Arrays.equals(keys[c], 0, keyLengths[c], buf, off, off + len))
+            {
+                counts[c]++;
+                siftDown(heapIndex[c]);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        int c;
+        long count;
+        long error;
+        if (size < capacity)
+        {
+            c = size++;
+            heap[c] = c;
+            heapIndex[c] = c;
+            count = 1;
+            error = 0;
+        }
+        else
+        {
+            c = heap[0];
+            remove(c);
+            count = sketch != null ? estimate : counts[c] + 1;
+            error = count - 1;
+        }
+
+        if (keys[c] == null || keys[c].length < len)
+        {
+            keys[c] = new byte[Math.max(len, 16)];
+        }
+        System.arraycopy(buf, off, keys[c], 0, len);
+        keyLengths[c] = len;
+        hashes[c] = h;
+        counts[c] = count;
+        errors[c] = error;
+        slots[findEmpty(h)] = c + 1;
+        siftUp(heapIndex[c]);
+        siftDown(heapIndex[c]);
+    }
+
+    private int findEmpty(int h)
+    {
+        int i = h & mask;
+        while (slots[i] != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Removes a counter's hash slot, shifting later entries of its probe run back */
+    private void remove(int c)
+    {
+        int i = hashes[c] & mask;
+        while (slots[i] != c + 1)
+        {
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        i = (i + 1) & mask;
+        while (slots[i] != 0)
+        {
+            int home = hashes[slots[i] - 1] & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask))
+            {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[hole] = 0;
+    }
+
+    private void siftUp(int i)
+    {
+        int c = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[c])
+            {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = c;
+        heapIndex[c] = i;
+    }
+
+    private void siftDown(int i)
+    {
+        int c = heap[i];
+        int half = size >>> 1;
+        while (i < half)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+            {
+                child++;
+            }
+            if (counts[heap[child]] >= counts[c])
+            {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = c;
+        heapIndex[c] = i;
+    }
+
+    /** @return The number of words counted */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /** @return The number of counters */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /** @return The most any reported count can be over by (with high probability when a sketch is used) */
+    public long errorBound()
+    {
+        return sketch != null ? sketch.errorBound() : total / capacity;
+    }
+
+    /**
+     * Finds the words with the highest counts
+     * @param k The number of words wanted
+     * @return Up to k words, highest count first, each carrying its error
+     */
+    public List<Word> top(int k)
+    {
+        Integer[] order = new Integer[size];
+        for (int c = 0; c < size; c++)
+        {
+            order[c] = c;
+        }
+        Arrays.sort(order, (a, b) -> {
+            if (counts[a] != counts[b])
+            {
+                return Long.compare(counts[b], counts[a]);
+            }
+            return Arrays.compareUnsigned(keys[a], 0, keyLengths[a], keys[b], 0, keyLengths[b]);
+        });
+
+        List<Word> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, size); i++)
+        {
+            int c = order[i];
+            String word = new String(keys[c], 0, keyLengths[c], StandardCharsets.UTF_8);
+            result.add(new Word(word, (int) Math.min(counts[c], Integer.MAX_VALUE),
+                    (int) Math.min(errors[c], Integer.MAX_VALUE)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts into a {@link WordTable} until its estimated size passes a memory budget, then
+ * writes the table out as a run file sorted by word bytes and starts a fresh one. The estimate
+ * covers the words and the table's arrays, and a full table is spilled rather than grown if
+ * the old and new arrays together would pass the budget while it grows. At the end
+ * the runs are k-way merged, adding up the counts of equal words, straight into a
+ * {@link SnapshotVocabulary} file that is then memory-mapped, so the full vocabulary never
+ * has to fit on the heap. If the budget is never reached, nothing touches the disk.
+ * <p>
+ * A run holds, per word in byte order, an int length, the word bytes and an int count.
+ * If a run cannot be written, token() throws an UncheckedIOException. A word whose merged
+ * count passes Integer.MAX_VALUE is kept at that value and counted by
+ * {@link #getSaturatedCount}.
+ * <p>
+ * When the load reports progress, each run's heaviest words are also kept in a small table
+ * before the run is written, so snapshots still see the words already spilled.
+ */
+public class SpillingSink implements TokenSink {
+
+    /** A rough heap cost of one distinct word beyond twice its length: key array, String and its bytes */
+    private static final int ENTRY_OVERHEAD = 64;
+    /** The heap cost of a WordTable's arrays per word of capacity: two slots, two references, hash and count */
+    private static final int TABLE_BYTES_PER_ENTRY = 32;
+    /** The most runs merged at once; more are merged in rounds */
+    private static final int MAX_FAN_IN = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final long budget;
+    private final Path directory;
+    private final HyperLogLog cardinality;
+    private final List<Path> runs = new ArrayList<>();
+    /** The heaviest words of the runs written so far, or null without a progress listener */
+    private final WordTable spilledTop;
+    private final int spilledTopK;
+    private WordTable table = new WordTable();
+    /** Estimated bytes of the words in the table, not counting its arrays */
+    private long used;
+    private int spills;
+    private int saturated;
+
+    /**
+     * @param options The memory budget, spill directory and cardinality estimate to count with
+     */
+    public SpillingSink(WordCloudOptions options)
+    {
+        if (options.getMemoryBudget() <= 0)
+        {
+            throw new IllegalArgumentException("no memory budget set");
+        }
+        budget = options.getMemoryBudget();
+        String spill = options.getSpillDirectory();
+        directory = Paths.get(spill != null ? spill : System.getProperty("java.io.tmpdir"));
+        int precision = options.getCardinalityPrecision();
+        cardinality = precision > 0 ? new HyperLogLog(precision) : null;
+        spilledTop = options.getProgressListener() != null ? new WordTable() : null;
+        spilledTopK = options.getTopK() * ProgressPublisher.CANDIDATE_FACTOR;
+    }
+
+    @Override
+    public void token(byte[] buf, int off, int len)
+    {
+        long hash = WordTable.hash64(buf, off, len);
+        if (cardinality != null)
+        {
+            cardinality.add(hash);
+        }
+        // a full table grows on its next new word, holding its old and new arrays at once
+        int capacity = table.getCapacity();
+        if (table.size() == capacity && used + 3L * capacity * TABLE_BYTES_PER_ENTRY > budget)
+        {
+            spillUnchecked();
+        }
+        int before = table.size();
+        table.addHashed(buf, off, len, hash);
+        if (table.size() != before)
+        {
+            used += 2L * len + ENTRY_OVERHEAD;
+            if (used + (long) table.getCapacity() * TABLE_BYTES_PER_ENTRY > budget)
+            {
+                spillUnchecked();
+            }
+        }
+    }
+
+    private void spillUnchecked()
+    {
+        try
+        {
+            spill();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void spill() throws IOException
+    {
+        if (spilledTop != null)
+        {
+            for (Word word : TopK.select(table, spilledTopK))
+            {
+                spilledTop.add(word.getWord(), word.getCount());
+            }
+        }
+        runs.add(writeRun(table));
+        spills++;
+        table = new WordTable();
+        used = 0;
+    }
+
+    private Path writeRun(Vocabulary words) throws IOException
+    {
+        int n = words.size();
+        Integer[] order = new Integer[n];
+        for (int id = 0; id < n; id++)
+        {
+            order[id] = id;
+        }
+        Arrays.sort(order, words::compareWords);
+
+        Path run = Files.createTempFile(directory, "wordcloud-run", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE)))
+        {
+            byte[] key = new byte[64];
+            for (int id : order)
+            {
+                int len = words.getKeyLength(id);
+                if (len > key.length)
+                {
+                    key = new byte[Math.max(len, key.length * 2)];
+                }
+                words.copyKey(id, key, 0);
+                out.writeInt(len);
+                out.write(key, 0, len);
+                out.writeInt(words.getCount(id));
+            }
+        }
+        return run;
+    }
+
+    /** @return The number of run files written to disk so far */
+    public int getSpillCount()
+    {
+        return spills;
+    }
+
+    /**
+     * @return The number of words whose merged count passed Integer.MAX_VALUE and was capped
+     *         there, known once {@link #finish} has merged the runs
+     */
+    public int getSaturatedCount()
+    {
+        return saturated;
+    }
+
+    /**
+     * @return What progress snapshots rank: the table being counted into and, once anything
+     *         has been spilled, the heaviest words of the runs
+     */
+    Vocabulary[] getProgressTables()
+    {
+        return spilledTop == null || spilledTop.size() == 0 ? new Vocabulary[] { table } : new Vocabulary[] { table, spilledTop };
+    }
+
+    /** @return The distinct-word estimate, or null when it is not enabled */
+    public HyperLogLog getCardinality()
+    {
+        return cardinality;
+    }
+
+    /**
+     * Finishes counting. Run files are deleted whatever happens.
+     * @param snapshot Where to write the merged snapshot, or null for a file in the spill directory that is deleted once mapped
+     * @param source The file the words were counted from, recorded in the snapshot header
+     * @param fingerprint The fingerprint of the settings the words were counted with
+     * @return The in-memory table if nothing was spilled, otherwise the mapped merged snapshot
+     */
+    public WordCounts finish(Path snapshot, Path source, int fingerprint) throws IOException
+    {
+        if (runs.isEmpty())
+        {
+            return table;
+        }
+        try
+        {
+            spill();
+            table = null;
+            while (runs.size() > MAX_FAN_IN)
+            {
+                List<Path> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                Path merged = Files.createTempFile(directory, "wordcloud-run", ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged), BUFFER_SIZE)))
+                {
+                    runs.add(merged);
+                    merge(group, (key, len, count) -> {
+                        out.writeInt(len);
+                        out.write(key, 0, len);
+                        out.writeInt(count);
+                    });
+                }
+                finally
+                {
+                    deleteAll(group);
+                }
+            }
+
+            boolean temporary = snapshot == null;
+            Path target = temporary ? Files.createTempFile(directory, "wordcloud-merged", ".snapshot") : snapshot;
+            try (SnapshotVocabulary.SortedWriter writer = new SnapshotVocabulary.SortedWriter(target, source, fingerprint))
+            {
+                saturated = merge(runs, writer::add);
+                writer.finish();
+            }
+            SnapshotVocabulary merged = SnapshotVocabulary.open(target);
+            if (temporary && !target.toFile().delete())
+            {
+                target.toFile().deleteOnExit();
+            }
+            return merged;
+        }
+        finally
+        {
+            deleteAll(runs);
+            runs.clear();
+        }
+    }
+
+    private interface MergeTarget {
+        void add(byte[] key, int len, int count) throws IOException;
+    }
+
+    /**
+     * Streams the union of sorted runs into a target in byte order, each word once with its counts added up
+     * @return The number of words whose count was capped at Integer.MAX_VALUE
+     */
+    private static int merge(List<Path> inputs, MergeTarget target) throws IOException
+    {
+        int saturated = 0;
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        try
+        {
+            for (Path input : inputs)
+            {
+                Run run = new Run(input);
+                if (run.next())
+                {
+                    queue.add(run);
+                }
+                else
+                {
+                    run.close();
+                }
+            }
+            byte[] key = new byte[64];
+            while (!queue.isEmpty())
+            {
+                Run first = queue.poll();
+                int len = first.len;
+                if (len > key.length)
+                {
+                    key = new byte[Math.max(len, key.length * 2)];
+                }
+                System.arraycopy(first.key, 0, key, 0, len);
+                long count = first.count;
+                advance(queue, first);
+                while (!queue.isEmpty() && queue.peek().compareTo(key, len) == 0)
+                {
+                    Run same = queue.poll();
+                    count += same.count;
+                    advance(queue, same);
+                }
+                if (count > Integer.MAX_VALUE)
+                {
+                    count = Integer.MAX_VALUE;
+                    saturated++;
+                }
+                target.add(key, len, (int) count);
+            }
+            return saturated;
+        }
+        finally
+        {
+            for (Run run : queue)
+            {
+                run.close();
+            }
+        }
+    }
+
+    private static void advance(PriorityQueue<Run> queue, Run run) throws IOException
+    {
+        if (run.next())
+        {
+            queue.add(run);
+        }
+        else
+        {
+            run.close();
+        }
+    }
+
+    private static void deleteAll(List<Path> files) throws IOException
+    {
+        for (Path file : files)
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** A cursor over one run file */
+    private static class Run implements Comparable<Run> {
+
+        private final DataInputStream in;
+        byte[] key = new byte[64];
+        int len;
+        int count;
+
+        Run(Path file) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+        }
+
+        /** @return Whether another word was read */
+        boolean next() throws IOException
+        {
+            try
+            {
+                len = in.readInt();
+            }
+            catch (EOFException e)
+            {
+                return false;
+            }
+            if (len > key.length)
+            {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            in.readFully(key, 0, len);
+            count = in.readInt();
+            return true;
+        }
+
+        int compareTo(byte[] other, int otherLen)
+        {
+            return Arrays.compareUnsigned(key, 0, len, other, 0, otherLen);
+        }
+
+        @Override
+        public int compareTo(Run other)
+        {
+            return compareTo(other.key, other.len);
+        }
+
+        void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
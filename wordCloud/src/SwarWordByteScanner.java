@@ -0,0 +1,55 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Classifies bytes eight at a time in a long (SIMD within a register). Every range test is
+ * done on the low seven bits of each byte with the high bit of the byte as a guard, so no
+ * borrow crosses from one byte into the next; bytes with the high bit set are word bytes anyway.
+ */
+class SwarWordByteScanner implements WordByteScanner {
+
+    static final SwarWordByteScanner INSTANCE = new SwarWordByteScanner();
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW = 0x7f7f7f7f7f7f7f7fL;
+
+    private SwarWordByteScanner()
+    {
+    }
+
+    @Override
+    public long wordMask(byte[] buf, int off)
+    {
+        long mask = 0;
+        for (int i = 0; i < BLOCK; i += 8)
+        {
+            mask |= wordBits((long) LONGS.get(buf, off + i)) << i;
+        }
+        return mask;
+    }
+
+    /** @return Bit i set if byte i of the little-endian word is a word byte */
+    static long wordBits(long w)
+    {
+        long x = w & LOW;
+        // folding in 0x20 maps A-Z onto a-z and leaves no other byte in a-z
+        long letters = inRange(x | 0x2020202020202020L, 'a', 'z');
+        long digits = inRange(x, '0', '9');
+        long quote = x ^ ('\'' * ONES);
+        quote = ~((quote + LOW) | quote) & HIGH;
+        long word = letters | digits | quote | (w & HIGH);
+        return ((word >>> 7) * 0x0102040810204080L) >>> 56;
+    }
+
+    /** @return The high bit of each byte set if its 7-bit value is within [lo, hi] */
+    private static long inRange(long x, int lo, int hi)
+    {
+        long atLeast = (x | HIGH) - lo * ONES;
+        long atMost = ((hi | 0x80) * ONES) - x;
+        return atLeast & atMost & HIGH;
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A word cloud over a file that keeps growing. It remembers how many bytes it has counted,
+ * and {@link #refresh()} counts only what was appended since, so a refresh costs time in
+ * proportion to the new data rather than the whole file.
+ * A word at the very end of the file is held back until something follows it, since the
+ * writer may not have finished it yet.
+ */
+public class TailingWordCloud implements WordStats {
+
+    private final Path file;
+    private final int topK;
+    private WordTable table;
+    private long consumed;
+
+    /** The current top hits as word ids, most frequent first */
+    private int[] topIds = new int[0];
+
+    /** Ids counted during the current refresh, deduplicated with a per-id stamp */
+    private int[] touched = new int[64];
+    private int touchedCount;
+    private int[] stamps = new int[64];
+    private int epoch;
+
+    /**
+     * Creates a cloud and counts the file as it is now
+     * @param fileName The file to follow
+     * @param topK The number of words kept in the top hits
+     */
+    public TailingWordCloud(String fileName, int topK) throws IOException
+    {
+        if (topK < 1)
+        {
+            throw new IllegalArgumentException("topK must be at least 1: " + topK);
+        }
+        file = Paths.get(fileName);
+        this.topK = topK;
+        table = new WordTable();
+        refresh();
+    }
+
+    /**
+     * Counts the bytes appended to the file since the last refresh and updates the top hits.
+     * If the file has shrunk it is assumed to have been replaced and is counted from the start.
+     * @return The number of bytes counted
+     */
+    public long refresh() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size < consumed)
+            {
+                table = new WordTable();
+                consumed = 0;
+                topIds = new int[0];
+                stamps = new int[64];
+            }
+            long end = lastBoundary(channel, consumed, size);
+            if (end == consumed)
+            {
+                return 0;
+            }
+
+            long start = System.nanoTime();
+            long before = table.getTotal();
+            epoch++;
+            touchedCount = 0;
+            ByteTokenizer.tokenize(channel, consumed, end, (buf, off, len) -> touch(table.add(buf, off, len)));
+            long counted = System.nanoTime();
+            updateTopHits();
+            WordCloudMetrics.global().recordLoad(table, table.getTotal() - before, counted - start, System.nanoTime() - counted);
+
+            long read = end - consumed;
+            consumed = end;
+            return read;
+        }
+    }
+
+    private void touch(int id)
+    {
+        if (id >= stamps.length)
+        {
+            stamps = Arrays.copyOf(stamps, Math.max(stamps.length * 2, id + 1));
+        }
+        if (stamps[id] != epoch)
+        {
+            stamps[id] = epoch;
+            if (touchedCount == touched.length)
+            {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[touchedCount++] = id;
+        }
+    }
+
+    /**
+     * Counts only ever grow, so a word that was neither in the top hits nor counted during this
+     * refresh still ranks below every old top hit. The new top hits are therefore among the old
+     * top hits and the words just counted.
+     */
+    private void updateTopHits()
+    {
+        int n = touchedCount;
+        int[] candidates = Arrays.copyOf(touched, n + topIds.length);
+        for (int id : topIds)
+        {
+            if (stamps[id] != epoch)
+            {
+                candidates[n++] = id;
+            }
+        }
+        topIds = TopK.select(table, candidates, n, topK);
+    }
+
+    /** Finds the end of the last delimiter in a range, so that a range never ends inside a word */
+    private static long lastBoundary(FileChannel channel, long start, long end) throws IOException
+    {
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = end;
+        while (pos > start)
+        {
+            long from = Math.max(start, pos - probe.capacity());
+            probe.clear();
+            probe.limit((int) (pos - from));
+            while (probe.hasRemaining())
+            {
+                if (channel.read(probe, from + probe.position()) < 0)
+                {
+                    break;
+                }
+            }
+            for (int i = probe.position() - 1; i >= 0; i--)
+            {
+                if (!ByteTokenizer.isWordByte(probe.get(i)))
+                {
+                    return from + i + 1;
+                }
+            }
+            pos = from;
+        }
+        return start;
+    }
+
+    /** @return The number of bytes of the file counted so far */
+    public long getConsumed()
+    {
+        return consumed;
+    }
+
+    public List<Word> getTopHits()
+    {
+        return TopK.toWords(table, topIds);
+    }
+
+    public long getTotalWords()
+    {
+        return table.getTotal();
+    }
+
+    public int getUniqueWords()
+    {
+        return table.size();
+    }
+
+    public void printInfo()
+    {
+        List<Word> topHits = getTopHits();
+        System.out.println("Total # of Words >>> " + table.getTotal());
+        System.out.println("Total # of unique Words >>> " + table.size());
+        int t = 1;
+        for(int i = 0; i < topHits.size(); i++)
+        {
+            System.out.println(t+")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount());
+            t++;
+        }
+    }
+}
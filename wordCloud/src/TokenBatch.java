@@ -0,0 +1,63 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A run of tokens packed into one shared byte buffer, so a stream can hand over thousands of
+ * words at a time without a String or array per word. Token i is the bytes
+ * [getOffset(i), getOffset(i) + getLength(i)) of {@link #getBuffer()}.
+ * A batch is never modified once published.
+ */
+public class TokenBatch {
+
+    private final byte[] buffer;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int size;
+
+    TokenBatch(byte[] buffer, int[] offsets, int[] lengths, int size)
+    {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.size = size;
+    }
+
+    /** @return The number of tokens */
+    public int size()
+    {
+        return size;
+    }
+
+    /** @return The buffer every token of the batch lives in; not to be modified */
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    public int getOffset(int i)
+    {
+        return offsets[i];
+    }
+
+    public int getLength(int i)
+    {
+        return lengths[i];
+    }
+
+    /** @return Token i as a String, for callers that need one */
+    public String getWord(int i)
+    {
+        return new String(buffer, offsets[i], lengths[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hands every token to a sink, in order
+     * @param sink The sink to feed
+     */
+    public void forEach(TokenSink sink)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            sink.token(buffer, offsets[i], lengths[i]);
+        }
+    }
+}
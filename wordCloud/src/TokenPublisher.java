@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the tokens of a byte stream as {@link TokenBatch}es, one batch per block read.
+ * Input is only read while the subscriber has outstanding demand, so a slow subscriber holds
+ * the reading back instead of letting batches pile up in memory.
+ * <p>
+ * A stream can only be read once, so the publisher takes a single subscriber. Reading and
+ * delivery run on the given executor, one task at a time, never on the thread that calls
+ * {@link Flow.Subscription#request}. Reads block the executor thread, so the channel must be
+ * in blocking mode; a non-blocking one would return no bytes and leave the task spinning.
+ */
+public class TokenPublisher implements Flow.Publisher<TokenBatch> {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final WordCloudOptions options;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param channel The input, in blocking mode; closed when the stream ends, fails or is cancelled
+     * @param options The normalizer to apply, if any
+     * @param executor Runs the reads and the subscriber's callbacks
+     */
+    public TokenPublisher(ReadableByteChannel channel, WordCloudOptions options, Executor executor)
+    {
+        if (isNonBlocking(channel))
+        {
+            throw new IllegalArgumentException("channel must be in blocking mode");
+        }
+        this.channel = channel;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    /**
+     * Publishes from a stream on the common pool without normalizing
+     * @param in The input; closed when the stream ends, fails or is cancelled
+     */
+    public TokenPublisher(InputStream in)
+    {
+        this(Channels.newChannel(in), new WordCloudOptions(), ForkJoinPool.commonPool());
+    }
+
+    private static boolean isNonBlocking(ReadableByteChannel channel)
+    {
+        return channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TokenBatch> subscriber)
+    {
+        if (!subscribed.compareAndSet(false, true))
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                public void request(long n)
+                {
+                }
+
+                public void cancel()
+                {
+                }
+            });
+            subscriber.onError(new IllegalStateException("a token stream can only be subscribed to once"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription(subscriber));
+    }
+
+    /** Collects tokens into the arrays of the next batch */
+    private static class BatchBuilder implements TokenSink {
+
+        private byte[] buffer = new byte[BLOCK_SIZE];
+        private int[] offsets = new int[BLOCK_SIZE / 8];
+        private int[] lengths = new int[BLOCK_SIZE / 8];
+        private int size;
+        private int used;
+
+        @Override
+        public void token(byte[] buf, int off, int len)
+        {
+            if (used + len > buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, used + len));
+            }
+            if (size == offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            System.arraycopy(buf, off, buffer, used, len);
+            offsets[size] = used;
+            lengths[size] = len;
+            size++;
+            used += len;
+        }
+
+        /** Hands the collected tokens over as a batch and starts new arrays */
+        TokenBatch take()
+        {
+            TokenBatch batch = new TokenBatch(buffer, offsets, lengths, size);
+            buffer = new byte[buffer.length];
+            offsets = new int[offsets.length];
+            lengths = new int[lengths.length];
+            size = 0;
+            used = 0;
+            return batch;
+        }
+    }
+
+    private class Subscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super TokenBatch> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        /** Drain requests outstanding, so only one drain runs at a time */
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        /** Only touched inside a drain, which the work counter keeps to one thread at a time */
+        private boolean done;
+        private boolean eof;
+
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private final BatchBuilder builder = new BatchBuilder();
+        private final ByteTokenizer tokenizer = new ByteTokenizer(options.wrap(builder));
+
+        Subscription(Flow.Subscriber<? super TokenBatch> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                badRequest = new IllegalArgumentException("demand must be positive: " + n);
+            }
+            else
+            {
+                demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (work.getAndIncrement() == 0)
+            {
+                executor.execute(this);
+            }
+        }
+
+        /** Reads and delivers while there is demand */
+        @Override
+        public void run()
+        {
+            int missed = 1;
+            do
+            {
+                drain();
+                missed = work.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        private void drain()
+        {
+            while (!done)
+            {
+                if (cancelled)
+                {
+                    finish(null, false);
+                    return;
+                }
+                if (badRequest != null)
+                {
+                    finish(badRequest, true);
+                    return;
+                }
+                if (demand.get() == 0)
+                {
+                    return;
+                }
+                TokenBatch batch;
+                try
+                {
+                    batch = next();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    finish(e, true);
+                    return;
+                }
+                if (batch != null)
+                {
+                    demand.decrementAndGet();
+                    subscriber.onNext(batch);
+                }
+                else
+                {
+                    finish(null, true);
+                }
+            }
+        }
+
+        /**
+         * Reads blocks until one yields tokens
+         * @return The next batch, or null once the input is used up
+         */
+        private TokenBatch next() throws IOException
+        {
+            while (!eof)
+            {
+                block.clear();
+                int n = channel.read(block);
+                if (n == 0 && isNonBlocking(channel))
+                {
+                    throw new IOException("channel was switched to non-blocking mode");
+                }
+                if (n < 0)
+                {
+                    eof = true;
+                    tokenizer.finish();
+                    return builder.size > 0 ? builder.take() : null;
+                }
+                tokenizer.feed(block.array(), 0, n);
+                if (builder.size > 0)
+                {
+                    return builder.take();
+                }
+            }
+            return null;
+        }
+
+        private void finish(Throwable error, boolean signal)
+        {
+            done = true;
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                if (error == null)
+                {
+                    error = e;
+                }
+            }
+            if (signal)
+            {
+                if (error != null)
+                {
+                    subscriber.onError(error);
+                }
+                else
+                {
+                    subscriber.onComplete();
+                }
+            }
+        }
+    }
+}
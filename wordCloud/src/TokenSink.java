@@ -0,0 +1,23 @@
+/**
+ * Receives tokens from a {@link ByteTokenizer} as slices of a byte buffer.
+ * The slice is only valid for the duration of the call.
+ */
+public interface TokenSink {
+
+    /**
+     * Called once per token
+     * @param buf The buffer holding the token's UTF-8 bytes
+     * @param off The offset of the token in the buffer
+     * @param len The length of the token in bytes
+     */
+    void token(byte[] buf, int off, int len);
+
+    /**
+     * @return true if the sink reports the tokens it receives to {@link WordCloudMetrics}
+     *         itself, so a tokenizer feeding it reports only the bytes
+     */
+    default boolean reportsTokens()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the k most frequent words of a {@link CountSource} with a bounded min-heap, in O(n log k).
+ * Words with equal counts are ordered by their UTF-8 bytes, so the result is deterministic.
+ */
+public class TopK {
+
+    public static final int DEFAULT_K = 30;
+
+    private final CountSource table;
+    private final int[] heap;
+    private int size;
+
+    private TopK(CountSource table, int k)
+    {
+        this.table = table;
+        heap = new int[k];
+    }
+
+    /**
+     * Finds the most frequent words
+     * @param table The counted words
+     * @param k The number of words wanted
+     * @return Up to k words, most frequent first
+     */
+    public static List<Word> select(CountSource table, int k)
+    {
+        if (k < 1)
+        {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        TopK top = new TopK(table, Math.min(k, Math.max(table.size(), 1)));
+        for (int id = 0; id < table.size(); id++)
+        {
+            top.offer(id);
+        }
+        return toWords(table, top.drain());
+    }
+
+    /**
+     * Finds the most frequent words among a set of candidates
+     * @param table The counted words
+     * @param candidates The ids to choose from, without duplicates
+     * @param n The number of candidates in the array
+     * @param k The number of words wanted
+     * @return The ids of up to k words, most frequent first
+     */
+    public static int[] select(CountSource table, int[] candidates, int n, int k)
+    {
+        TopK top = new TopK(table, Math.min(k, Math.max(n, 1)));
+        for (int i = 0; i < n; i++)
+        {
+            top.offer(candidates[i]);
+        }
+        return top.drain();
+    }
+
+    /**
+     * Turns word ids into Words holding their current counts
+     * @param table The counted words
+     * @param ids The ids to look up
+     */
+    public static List<Word> toWords(CountSource table, int[] ids)
+    {
+        List<Word> words = new ArrayList<>(ids.length);
+        for (int id : ids)
+        {
+            words.add(new Word(table.getWord(id), table.getCount(id)));
+        }
+        return words;
+    }
+
+    /** @return true if word a ranks below word b */
+    private boolean below(int a, int b)
+    {
+        int ca = table.getCount(a);
+        int cb = table.getCount(b);
+        if (ca != cb)
+        {
+            return ca < cb;
+        }
+        return table.compareWords(a, b) > 0;
+    }
+
+    private void offer(int id)
+    {
+        if (size < heap.length)
+        {
+            heap[size] = id;
+            siftUp(size++);
+        }
+        else if (below(heap[0], id))
+        {
+            heap[0] = id;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i)
+    {
+        int id = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (!below(id, heap[parent]))
+            {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = id;
+    }
+
+    private void siftDown(int i)
+    {
+        int id = heap[i];
+        int half = size >>> 1;
+        while (i < half)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < size && below(heap[child + 1], heap[child]))
+            {
+                child++;
+            }
+            if (!below(heap[child], id))
+            {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = id;
+    }
+
+    /** Empties the heap, worst word first, into an array of ids ordered best first */
+    private int[] drain()
+    {
+        int[] result = new int[size];
+        while (size > 0)
+        {
+            result[size - 1] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(0);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * A store of distinct words and their counts that is counted into. Every word gets a dense id
+ * (0, 1, 2, ...) in the order it was first added, and words are given as UTF-8 bytes so they
+ * can be counted straight out of a token buffer.
+ */
+public interface Vocabulary extends WordCounts {
+
+    /**
+     * Adds a number of occurrences of a word
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param n The number of occurrences
+     * @return The id of the word
+     */
+    int add(byte[] buf, int off, int len, int n);
+
+    /**
+     * Adds one occurrence of a word whose hash the caller has already computed
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param hash The word's {@link WordTable#hash64}
+     * @return The id of the word
+     */
+    int addHashed(byte[] buf, int off, int len, long hash);
+
+    /**
+     * Adds every count of other words to this vocabulary
+     * @param other The words to merge in
+     */
+    void addAll(WordCounts other);
+
+    /**
+     * Captures the words added so far, to be read on another thread while this vocabulary goes
+     * on counting. Word bytes never change once added, so they are shared; the counts are
+     * copied here, on the counting thread, which takes time in proportion to the number of
+     * words. The view must reach its reader through something that orders memory, such as a
+     * volatile field or an executor.
+     * @return A view of the words and counts as they are now
+     */
+    CountSource freeze();
+}
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A word cloud over only the most recent part of a stream: the last N tokens, or the tokens
+ * seen in the last stretch of time. The window is a ring of buckets; when the oldest bucket
+ * falls out of the window its tokens are subtracted again. Counts live in a
+ * {@link FrequencyList}, so the top hits cost O(k) however large the window is.
+ * The window slides a bucket at a time, so it holds between (buckets - 1) / buckets of the
+ * window and the whole window.
+ * <p>
+ * Words whose count has dropped to zero stay in the vocabulary until they outnumber the tokens
+ * in the window; then the vocabulary is rebuilt from the live words alone. Memory is bounded by
+ * the window rather than by every word the stream has ever carried, and the rebuild costs
+ * O(1) amortized per dead word.
+ */
+public class WindowedWordCloud implements WordStats, TokenSink {
+
+    private static final int READ_SIZE = 1 << 16;
+    /** Dead words tolerated beyond the tokens in the window, so small windows do not rebuild constantly */
+    private static final int MIN_DEAD_WORDS = 1024;
+
+    private WordTable vocabulary = new WordTable();
+    private FrequencyList counts = new FrequencyList();
+    private final int topK;
+    /** Words added one by one and not yet reported to the metrics */
+    private final WordCloudMetrics.Batch added = new WordCloudMetrics.Batch();
+
+    /** Ring of buckets, each holding the ids of the tokens it received */
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+    private int current;
+
+    /** Token windows: the tokens per bucket. Time windows: 0 */
+    private final int tokensPerBucket;
+    /** Time windows: the milliseconds per bucket, and when the current bucket ends */
+    private final long millisPerBucket;
+    private long bucketEnd;
+
+    /**
+     * Creates a cloud over the last tokens of a stream
+     * @param windowTokens The number of tokens in the window
+     * @param buckets The number of buckets the window slides by
+     * @param topK The number of words reported in the top hits
+     */
+    public WindowedWordCloud(int windowTokens, int buckets, int topK)
+    {
+        this(buckets, topK, Math.max(1, (windowTokens + buckets - 1) / buckets), 0);
+    }
+
+    /**
+     * Creates a cloud over the tokens seen in a recent stretch of time
+     * @param window How far back the window reaches
+     * @param buckets The number of buckets the window slides by
+     * @param topK The number of words reported in the top hits
+     */
+    public WindowedWordCloud(Duration window, int buckets, int topK)
+    {
+        this(buckets, topK, 0, Math.max(1, window.toMillis() / buckets));
+        bucketEnd = System.currentTimeMillis() + millisPerBucket;
+    }
+
+    private WindowedWordCloud(int buckets, int topK, int tokensPerBucket, long millisPerBucket)
+    {
+        if (buckets < 1 || topK < 1)
+        {
+            throw new IllegalArgumentException("buckets and topK must be at least 1");
+        }
+        this.buckets = new int[buckets][];
+        bucketSizes = new int[buckets];
+        for (int b = 0; b < buckets; b++)
+        {
+            this.buckets[b] = new int[tokensPerBucket > 0 ? tokensPerBucket : 64];
+        }
+        this.topK = topK;
+        this.tokensPerBucket = tokensPerBucket;
+        this.millisPerBucket = millisPerBucket;
+    }
+
+    @Override
+    public void token(byte[] buf, int off, int len)
+    {
+        if (tokensPerBucket > 0)
+        {
+            if (bucketSizes[current] == tokensPerBucket)
+            {
+                rotate();
+            }
+        }
+        else
+        {
+            advance(System.currentTimeMillis());
+        }
+
+        int id = vocabulary.add(buf, off, len);
+        counts.increment(id);
+        int[] bucket = buckets[current];
+        if (bucketSizes[current] == bucket.length)
+        {
+            bucket = buckets[current] = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        bucket[bucketSizes[current]++] = id;
+    }
+
+    /** Counts one word */
+    public void add(String word)
+    {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        token(key, 0, key.length);
+        added.add(1);
+    }
+
+    /**
+     * Counts every word read from a stream until it ends
+     * @param in The stream to read; it is not closed
+     */
+    public void load(InputStream in) throws IOException
+    {
+        long start = System.nanoTime();
+        ByteTokenizer tokenizer = new ByteTokenizer(this);
+        byte[] buf = new byte[READ_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1)
+        {
+            tokenizer.feed(buf, 0, n);
+        }
+        tokenizer.finish();
+        WordCloudMetrics.global().recordLoad(vocabulary, tokenizer.getTokenCount(), System.nanoTime() - start, 0);
+    }
+
+    /** Expires every time bucket that has ended by now */
+    private void advance(long now)
+    {
+        if (millisPerBucket == 0)
+        {
+            return;
+        }
+        int expired = 0;
+        while (now >= bucketEnd && expired < buckets.length)
+        {
+            rotate();
+            bucketEnd += millisPerBucket;
+            expired++;
+        }
+        if (now >= bucketEnd)
+        {
+            bucketEnd = now - (now - bucketEnd) % millisPerBucket + millisPerBucket;
+        }
+    }
+
+    /** Moves to the next bucket in the ring, subtracting the tokens it held */
+    private void rotate()
+    {
+        current = (current + 1) % buckets.length;
+        int[] bucket = buckets[current];
+        for (int i = 0; i < bucketSizes[current]; i++)
+        {
+            counts.decrement(bucket[i]);
+        }
+        bucketSizes[current] = 0;
+        if (vocabulary.size() - counts.getDistinct() > counts.getTotal() + MIN_DEAD_WORDS)
+        {
+            compact();
+        }
+    }
+
+    /** Rebuilds the vocabulary from the words still in the window, renumbering the buckets' ids */
+    private void compact()
+    {
+        WordTable live = new WordTable(counts.getDistinct());
+        FrequencyList liveCounts = new FrequencyList();
+        int[] renumbered = new int[vocabulary.size()];
+        Arrays.fill(renumbered, -1);
+        for (int b = 0; b < buckets.length; b++)
+        {
+            int[] bucket = buckets[b];
+            for (int i = 0; i < bucketSizes[b]; i++)
+            {
+                int id = bucket[i];
+                if (renumbered[id] < 0)
+                {
+                    byte[] key = vocabulary.getKey(id);
+                    renumbered[id] = live.add(key, 0, key.length);
+                }
+                bucket[i] = renumbered[id];
+                liveCounts.increment(bucket[i]);
+            }
+        }
+        vocabulary = live;
+        counts = liveCounts;
+    }
+
+    public List<Word> getTopHits()
+    {
+        added.flush();
+        advance(System.currentTimeMillis());
+        int[] ids = counts.top(topK);
+        Word[] words = new Word[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            words[i] = new Word(vocabulary.getWord(ids[i]), counts.getCount(ids[i]));
+        }
+        return Arrays.asList(words);
+    }
+
+    /** @return The number of tokens in the window */
+    public long getTotalWords()
+    {
+        added.flush();
+        advance(System.currentTimeMillis());
+        return counts.getTotal();
+    }
+
+    /** @return The number of distinct words in the window */
+    public int getUniqueWords()
+    {
+        advance(System.currentTimeMillis());
+        return counts.getDistinct();
+    }
+
+    public void printInfo()
+    {
+        List<Word> topHits = getTopHits();
+        System.out.println("Total # of Words >>> " + counts.getTotal());
+        System.out.println("Total # of unique Words >>> " + counts.getDistinct());
+        int t = 1;
+        for(int i = 0; i < topHits.size(); i++)
+        {
+            System.out.println(t+")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount());
+            t++;
+        }
+    }
+}
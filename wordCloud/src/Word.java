@@ -1,12 +1,26 @@
 public class Word {
     private String word;
     private int count;
+    private int error;
 
     public Word(String w)
     {
         word = w;
     }
 
+    public Word(String w, int c)
+    {
+        word = w;
+        count = c;
+    }
+
+    public Word(String w, int c, int e)
+    {
+        word = w;
+        count = c;
+        error = e;
+    }
+
     public String getWord()
     {
         return word;
@@ -17,6 +31,12 @@ public class Word {
         return count;
     }
 
+    /** @return How much the count may be over the true count; 0 when the count is exact */
+    public int getError()
+    {
+        return error;
+    }
+
     public void increment()
     {
         count++;
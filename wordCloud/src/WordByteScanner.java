@@ -0,0 +1,74 @@
+/**
+ * Classifies 64 bytes at a time as word bytes or delimiters, the same way as
+ * {@link ByteTokenizer#isWordByte}, so a tokenizer can find word boundaries with bit
+ * operations on the mask instead of a branch per byte.
+ * <p>
+ * Two implementations exist. {@link #scalar()} works on 8 bytes per long in plain Java.
+ * {@link #vector()} uses jdk.incubator.vector and lives in the separate vector/ source folder,
+ * because it only compiles and runs with the incubator module:
+ * <pre>
+ * javac -d out src/*.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ * java --add-modules jdk.incubator.vector -cp out Runner ...
+ * </pre>
+ * Without the module, or without the class, {@link #best()} falls back to the scalar scanner.
+ */
+public interface WordByteScanner {
+
+    /** The number of bytes classified per call */
+    int BLOCK = 64;
+
+    /**
+     * @param buf The bytes to classify
+     * @param off The offset of the first of {@link #BLOCK} bytes, all inside the buffer
+     * @return A mask with bit i set if byte off + i belongs to a word
+     */
+    long wordMask(byte[] buf, int off);
+
+    /** @return The plain Java scanner */
+    static WordByteScanner scalar()
+    {
+        return SwarWordByteScanner.INSTANCE;
+    }
+
+    /** @return The Vector API scanner, or null if it or the incubator module is not available */
+    static WordByteScanner vector()
+    {
+        return VectorHolder.VECTOR;
+    }
+
+    /** @return The vector scanner if it can be used, otherwise the scalar one */
+    static WordByteScanner best()
+    {
+        return VectorHolder.VECTOR != null ? VectorHolder.VECTOR : SwarWordByteScanner.INSTANCE;
+    }
+
+    /** Looks up the vector scanner once, on first use */
+    final class VectorHolder {
+
+        static final WordByteScanner VECTOR = load();
+
+        private VectorHolder()
+        {
+        }
+
+        private static WordByteScanner load()
+        {
+            if (Boolean.getBoolean("wordcloud.scalar"))
+            {
+                return null;
+            }
+            try
+            {
+                WordByteScanner scanner = (WordByteScanner) Class.forName("VectorWordByteScanner").getConstructor().newInstance();
+                // make sure the incubator classes actually link before the scanner is trusted
+                scanner.wordMask(new byte[BLOCK], 0);
+                return scanner;
+            }
+            catch (ReflectiveOperationException | LinkageError e)
+            {
+                return null;
+            }
+        }
+    }
+}
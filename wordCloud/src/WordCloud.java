@@ -1,97 +1,237 @@
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.*;
+import java.util.List;
+import java.util.function.LongConsumer;
 
-public class WordCloud {
+public class WordCloud implements WordStats {
 
-    private ArrayList<Word> words;
-    private ArrayList<Word> topHits;
-    private int totalWords;
+    private WordCounts table;
+    private HyperLogLog cardinality;
+    private List<Word> topHits;
+    /** Top n-grams indexed by n, or null past the configured order */
+    private List<List<Word>> topPhrases;
+    private long totalWords;
     private int uniqueWords;
 
-    public WordCloud(String fileName) throws FileNotFoundException {
-        words = new ArrayList<>();
+    public WordCloud(String fileName) throws IOException {
+        this(fileName, new WordCloudOptions());
+    }
+
+    public WordCloud(String fileName, int parallelism) throws IOException {
+        this(fileName, new WordCloudOptions().setParallelism(parallelism));
+    }
+
+    public WordCloud(String fileName, WordCloudOptions options) throws IOException {
         topHits = new ArrayList<>();
         totalWords = 0;
         uniqueWords = 0;
-        load(fileName);
+        load(fileName, options);
     }
 
-    private int getIndex(String str)
+    private void load(String fileName, WordCloudOptions options) throws IOException
     {
-        for(int i = 0; i <words.size(); i++)
+        long start = System.nanoTime();
+        Path source = Paths.get(fileName);
+        Path snapshot = options.getSnapshot() != null && options.getNGramOrder() == 1 ? Paths.get(options.getSnapshot()) : null;
+        SnapshotVocabulary saved = snapshot != null ? SnapshotVocabulary.openIfFresh(snapshot, source, options.fingerprint()) : null;
+        ProgressPublisher progress = options.getProgressListener() == null ? null
+                : new ProgressPublisher(options, GzipCounter.isGzip(source) ? -1 : Files.size(source));
+
+        topPhrases = new ArrayList<>();
+        topPhrases.add(null);
+        try
         {
-            if(words.get(i).getWord().equals(str))
+            if (saved != null)
+            {
+                table = saved;
+                if (options.getCardinalityPrecision() > 0)
+                {
+                    cardinality = estimateCardinality(saved, options.getCardinalityPrecision());
+                }
+            }
+            else if (options.getMemoryBudget() > 0)
+            {
+                if (options.getNGramOrder() > 1)
+                {
+                    throw new IllegalArgumentException("n-grams cannot be counted under a memory budget");
+                }
+                SpillingSink sink = new SpillingSink(options);
+                ProgressPublisher.Part part = progress == null ? null : progress.part();
+                try
+                {
+                    tokenize(source, options.wrap(sink), part == null ? null : bytes -> part.counted(bytes, sink.getProgressTables()));
+                }
+                catch (UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+                table = sink.finish(snapshot, source, options.fingerprint());
+                cardinality = sink.getCardinality();
+                if (sink.getSaturatedCount() > 0)
+                {
+                    System.err.println("WordCloud: " + sink.getSaturatedCount() + " word counts passed " + Integer.MAX_VALUE + " and were capped");
+                }
+                if (snapshot != null && sink.getSpillCount() == 0)
+                {
+                    SnapshotVocabulary.write(snapshot, table, source, options.fingerprint());
+                }
+            }
+            else
             {
-                return i;
+                CountingSink sink = count(source, options, progress);
+                table = sink.getTable();
+                cardinality = sink.getCardinality();
+                if (snapshot != null)
+                {
+                    SnapshotVocabulary.write(snapshot, table, source, options.fingerprint());
+                }
+                for (int n = 2; n <= options.getNGramOrder(); n++)
+                {
+                    topPhrases.add(TopK.select(sink.getNGrams(n), options.getTopK()));
+                }
             }
         }
-
-        return -1;
-    }
-
-    private void load(String fileName) throws FileNotFoundException
-    {
-        File file = new File(fileName);
-        Scanner input = new Scanner(file);
-        int t = 0;
-        words.add(new Word(input.next()));
-        while (input.hasNext())
+        finally
         {
-            if(getIndex(words.get(t).getWord())!=-1)
+            // lets the background thread end even if counting failed
+            if (progress != null)
             {
-                words.get(t).increment();
+                progress.close();
             }
-            words.add(new Word(input.next()));
-            t++;
         }
 
-        findTopHits();
+        totalWords = table.getTotal();
+        uniqueWords = table.size();
+        long counted = System.nanoTime();
+        topHits = TopK.select(table, options.getTopK());
+        topPhrases.add(1, topHits);
+        WordCloudMetrics.global().recordLoad(table, saved != null ? 0 : totalWords, counted - start, System.nanoTime() - counted);
+        if (progress != null)
+        {
+            progress.finish(topHits);
+        }
     }
 
-    private void findTopHits()
+    /**
+     * Counts a plain or gzip file, in parallel if the options allow
+     * @param progress Takes snapshots as the text is counted, or null
+     */
+    private static CountingSink count(Path source, WordCloudOptions options, ProgressPublisher progress) throws IOException
     {
-        int[] array = new int[words.size()];
-
-        for(int i = 0;  i < words.size(); i++)
+        if (options.getParallelism() > 1 && options.getNGramOrder() == 1)
         {
-            array[i] = words.get(i).getCount();
+            return GzipCounter.isGzip(source) ? GzipCounter.count(source, options, progress) : ParallelCounter.count(source, options, progress);
         }
+        CountingSink sink = new CountingSink(options);
+        ProgressPublisher.Part part = progress == null ? null : progress.part();
+        tokenize(source, options.wrap(sink), part == null ? null : bytes -> part.counted(bytes, sink.getTable()));
+        return sink;
+    }
 
-        Arrays.sort(array);
+    /**
+     * Tokenizes a plain or gzip file in order
+     * @param progress Told the bytes of text tokenized after every block, or null
+     */
+    private static void tokenize(Path source, TokenSink sink, LongConsumer progress) throws IOException
+    {
+        if (GzipCounter.isGzip(source))
+        {
+            GzipCounter.tokenize(source, sink, progress);
+        }
+        else
+        {
+            ByteTokenizer.tokenize(source, sink, progress);
+        }
+    }
 
-        for(int i = array.length-1; i<=(array.length-31); i++)
+    /** A HyperLogLog only sees each distinct word once anyway, so feeding it the vocabulary gives the same registers */
+    private static HyperLogLog estimateCardinality(WordCounts words, int precision)
+    {
+        HyperLogLog estimate = new HyperLogLog(precision);
+        byte[] key = new byte[64];
+        for (int id = 0; id < words.size(); id++)
         {
-            for(int r = 0; r<words.size(); r++)
+            int len = words.getKeyLength(id);
+            if (len > key.length)
             {
-                if (words.get(r).getCount() == array[i])
-                {
-                    topHits.add(new Word(words.get(r).getWord()));
-                }
+                key = new byte[Math.max(len, key.length * 2)];
             }
+            words.copyKey(id, key, 0);
+            estimate.add(WordTable.hash64(key, 0, len));
+        }
+        return estimate;
+    }
+
+    public List<Word> getTopHits()
+    {
+        return topHits;
+    }
+
+    /**
+     * @param n The number of words per phrase, up to the n-gram order the cloud was loaded with
+     * @return The most frequent phrases of n words, most frequent first
+     */
+    public List<Word> getTopHits(int n)
+    {
+        if (n < 1 || n >= topPhrases.size())
+        {
+            throw new IllegalArgumentException("no " + n + "-grams were counted");
         }
+        return topPhrases.get(n);
+    }
 
-        System.out.print("size" + topHits.size());
+    /**
+     * Indexes the counted words for prefix queries
+     * @param maxSuggestions The most words a query can ask for
+     * @return An index over the words as they are now
+     */
+    public AutocompleteIndex buildAutocomplete(int maxSuggestions)
+    {
+        return new AutocompleteIndex(table, maxSuggestions);
+    }
 
-        printInfo();
+    /** @return The counts as a sparse vector, for comparing this cloud with others */
+    public WordProfile getProfile()
+    {
+        return WordProfile.of(table);
+    }
 
+    public long getTotalWords()
+    {
+        return totalWords;
     }
 
-    public ArrayList<Word> getTopHits()
+    public int getUniqueWords()
     {
-        return topHits;
+        return uniqueWords;
     }
 
     public void printInfo()
     {
-        System.out.println("Total # of Words >>> " + words.size());
-        System.out.println("Total # of unique Words >>> 526");
+        System.out.println("Total # of Words >>> " + totalWords);
+        System.out.println("Total # of unique Words >>> " + uniqueWords);
+        if (cardinality != null)
+        {
+            System.out.println("Estimated # of unique Words >>> " + cardinality.estimate() + " (+/- " + String.format("%.2f", cardinality.relativeError() * 100) + "%)");
+        }
         int t = 1;
         for(int i = 0; i < topHits.size(); i++)
         {
             System.out.println(t+")" + "\t" + topHits.get(i).getWord() + "\t" + topHits.get(i).getCount());
             t++;
         }
+        for (int n = 2; n < topPhrases.size(); n++)
+        {
+            System.out.println("Top " + n + "-word phrases >>>");
+            List<Word> phrases = topPhrases.get(n);
+            for(int i = 0; i < phrases.size(); i++)
+            {
+                System.out.println((i + 1) + ")" + "\t" + phrases.get(i).getWord() + "\t" + phrases.get(i).getCount());
+            }
+        }
     }
 }
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures tokenization, counting, top-K selection and cloud layout over dream.txt and synthetic
+ * Zipf corpora. The concurrent cases run 1, 2, 4, ... threads up to the core count, at least
+ * two, each counting the whole input into one {@link ConcurrentWordCloud}, so tokens per
+ * second against threads shows how it scales. Each case is warmed up for a few runs and at least three seconds, and then timed
+ * over several iterations, and reports throughput per second in the unit the case works in
+ * (tokens counted, words ranked for top-K, or words placed by the layout), bytes allocated by
+ * the benchmark thread per operation, and the GC collections and time spent during the measured
+ * iterations. Allocation is left blank for cases that do their work on
+ * other threads, since the threads of a finished pool can no longer be asked.
+ * <p>
+ * Usage: java WordCloudBenchmark [1m] [100m] [1g] ... (default: dream.txt and 1m)
+ * <p>
+ * The tokenize-vector case only runs with the vector/ sources compiled in and
+ * --add-modules jdk.incubator.vector on the command line; see {@link WordByteScanner}.
+ */
+public class WordCloudBenchmark {
+
+    private static final int WARMUP = 3;
+    /** Warmup also runs for at least this long, since Java2D in the layout case needs many runs to compile */
+    private static final long WARMUP_NANOS = 3_000_000_000L;
+    private static final int ITERATIONS = 5;
+    private static final int LAYOUT_WORDS = 500;
+
+    private interface Case {
+        /** Runs one operation and returns the number of units it processed */
+        long run(Path file) throws IOException;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException
+    {
+        List<Path> inputs = new ArrayList<>();
+        Path dream = Paths.get("dream.txt");
+        if (args.length == 0)
+        {
+            if (Files.exists(dream))
+            {
+                inputs.add(dream);
+            }
+            inputs.add(ZipfCorpus.cached(1L << 20));
+        }
+        for (String arg : args)
+        {
+            inputs.add(arg.equals("dream") ? dream : ZipfCorpus.cached(parseSize(arg)));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-28s %-12s %10s %14s %-7s %14s %8s %8s%n",
+                "case", "input", "ms/op", "per sec", "unit", "alloc B/op", "gc #", "gc ms");
+        for (Path input : inputs)
+        {
+            measure("tokenize", input, file -> tokenize(file, WordByteScanner.best()));
+            measure("tokenize-bytewise", input, file -> tokenize(file, null));
+            measure("tokenize-swar", input, file -> tokenize(file, WordByteScanner.scalar()));
+            if (WordByteScanner.vector() != null)
+            {
+                measure("tokenize-vector", input, file -> tokenize(file, WordByteScanner.vector()));
+            }
+            measure("count", input, file -> count(file, new WordCloudOptions()));
+            measure("count-offheap", input, file -> count(file, new WordCloudOptions().setOffHeap(true)));
+            measure("count-parallel-" + cores, input, "tokens", cores > 1, file -> count(file, new WordCloudOptions().setParallelism(cores)));
+            measure("count-normalized", input, file -> count(file, new WordCloudOptions()
+                    .setNormalizer(new Normalizer().setLowerCase(true).useEnglishStopwords())));
+            for (int threads = 1; threads <= Math.max(cores, 2); threads *= 2)
+            {
+                int producers = threads;
+                measure("count-concurrent-" + threads, input, "tokens", true, file -> countConcurrent(file, producers));
+            }
+
+            CountingSink counted = new CountingSink(new WordCloudOptions());
+            ByteTokenizer.tokenize(input, counted);
+            Vocabulary table = counted.getTable();
+            measure("topk-30", input, "words", false, file -> {
+                TopK.select(table, TopK.DEFAULT_K);
+                return table.size();
+            });
+
+            List<Word> cloud = TopK.select(table, LAYOUT_WORDS);
+            WordCloudRenderer renderer = new WordCloudRenderer(1200, 800);
+            measure("layout-" + LAYOUT_WORDS, input, "words", false, file -> renderer.layout(cloud).size());
+        }
+    }
+
+    private static long parseSize(String size)
+    {
+        String s = size.toLowerCase();
+        long unit = s.endsWith("g") ? 1L << 30 : s.endsWith("m") ? 1L << 20 : s.endsWith("k") ? 1L << 10 : 1;
+        return Long.parseLong(unit == 1 ? s : s.substring(0, s.length() - 1)) * unit;
+    }
+
+    private static long tokenize(Path file, WordByteScanner scanner) throws IOException
+    {
+        long[] tokens = new long[1];
+        ByteTokenizer.tokenize(file, (buf, off, len) -> tokens[0]++, scanner);
+        return tokens[0];
+    }
+
+    private static long count(Path file, WordCloudOptions options) throws IOException
+    {
+        CountingSink sink;
+        if (options.getParallelism() > 1)
+        {
+            sink = ParallelCounter.count(file, options);
+        }
+        else
+        {
+            sink = new CountingSink(options);
+            ByteTokenizer.tokenize(file, options.wrap(sink));
+        }
+        return sink.getTable().getTotal();
+    }
+
+    /** Counts the whole file once on each thread, each through its own producer */
+    private static long countConcurrent(Path file, int threads) throws IOException
+    {
+        ConcurrentWordCloud cloud = new ConcurrentWordCloud(2 * threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Void>> counted = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+            {
+                counted.add(pool.submit(() -> {
+                    try (ConcurrentWordCloud.Producer producer = cloud.newProducer())
+                    {
+                        ByteTokenizer.tokenize(file, producer);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : counted)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while counting " + file);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return cloud.getTotalWords();
+    }
+
+    private static void measure(String name, Path input, Case benchmark) throws IOException
+    {
+        measure(name, input, "tokens", false, benchmark);
+    }
+
+    /**
+     * @param unit What the case's run returns a count of
+     * @param threaded Whether the work runs on other threads, whose allocation cannot be measured
+     */
+    private static void measure(String name, Path input, String unit, boolean threaded, Case benchmark) throws IOException
+    {
+        long warmup = System.nanoTime();
+        for (int i = 0; i < WARMUP || System.nanoTime() - warmup < WARMUP_NANOS; i++)
+        {
+            benchmark.run(input);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long units = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            units += benchmark.run(input);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+
+        System.out.printf("%-28s %-12s %10.2f %14.0f %-7s %14s %8d %8d%n",
+                name, input.getFileName().toString().replace("wordcloud-zipf-", ""),
+                elapsed / 1e6 / ITERATIONS, units / (elapsed / 1e9), unit, threaded ? "-" : String.valueOf(allocated / ITERATIONS),
+                gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime()
+    {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,190 @@
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters for word counting, published as the JMX MBean
+ * "WordCloud:type=Metrics" and readable directly through {@link #snapshot()}.
+ * Tokens and bytes are bumped by every {@link ByteTokenizer} once per block it is fed, so they
+ * move while a load runs, whichever class is counting; the load counters are bumped once per
+ * finished load. Words added one at a time are reported in batches of {@link Batch#SIZE}, and at
+ * the latest when the cloud they were added to is next read; a {@link ConcurrentWordCloud}
+ * producer reports each fold. All are LongAdders, never touched per token, so they cost
+ * nothing on the counting path and can stay on permanently. Hash table statistics are only worked out when
+ * they are read, from a weak reference to the most recently loaded vocabulary.
+ */
+public class WordCloudMetrics implements WordCloudMetricsMBean {
+
+    public static final String OBJECT_NAME = "WordCloud:type=Metrics";
+
+    private static final WordCloudMetrics GLOBAL = register(new WordCloudMetrics());
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    /** Tokens of finished loads only, to go with loadNanos */
+    private final LongAdder loadTokens = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder topKNanos = new LongAdder();
+
+    private volatile int vocabularySize;
+    private volatile WeakReference<WordCounts> lastVocabulary = new WeakReference<>(null);
+
+    /** @return The metrics every WordCloud reports to */
+    public static WordCloudMetrics global()
+    {
+        return GLOBAL;
+    }
+
+    private static WordCloudMetrics register(WordCloudMetrics metrics)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException | SecurityException e)
+        {
+            System.err.println("WordCloud metrics not published over JMX: " + e);
+        }
+        return metrics;
+    }
+
+    /**
+     * Holds the words added one at a time until there are enough to be worth reporting, so
+     * adding a word writes no shared counter. Not thread-safe: each single-threaded cloud
+     * keeps its own, and flushes it when it is read.
+     */
+    static class Batch {
+
+        static final int SIZE = 1 << 12;
+
+        private int pending;
+
+        /** Counts words added; reports them once a batch is full */
+        void add(int words)
+        {
+            pending += words;
+            if (pending >= SIZE)
+            {
+                flush();
+            }
+        }
+
+        /** Reports the words not reported yet */
+        void flush()
+        {
+            if (pending > 0)
+            {
+                GLOBAL.tokenized(0, pending);
+                pending = 0;
+            }
+        }
+    }
+
+    /**
+     * Records text as it is tokenized
+     * @param bytesRead The bytes of text, after any decompression; 0 for words added one by one
+     * @param tokenCount The tokens they held
+     */
+    void tokenized(long bytesRead, long tokenCount)
+    {
+        bytes.add(bytesRead);
+        tokens.add(tokenCount);
+    }
+
+    /**
+     * Records a finished load; its tokens and bytes have already been recorded as tokenized
+     * @param words The counted vocabulary, or null for counts that are not kept in one
+     * @param tokenCount The tokens this load counted, 0 if it reloaded saved counts
+     * @param countNanos The time spent tokenizing and counting, or reloading
+     * @param selectNanos The time spent selecting top hits
+     */
+    void recordLoad(WordCounts words, long tokenCount, long countNanos, long selectNanos)
+    {
+        loads.increment();
+        loadTokens.add(tokenCount);
+        loadNanos.add(countNanos);
+        topKNanos.add(selectNanos);
+        if (words != null)
+        {
+            vocabularySize = words.size();
+            lastVocabulary = new WeakReference<>(words);
+        }
+    }
+
+    public long getLoads()
+    {
+        return loads.sum();
+    }
+
+    public long getTokensProcessed()
+    {
+        return tokens.sum();
+    }
+
+    public long getBytesRead()
+    {
+        return bytes.sum();
+    }
+
+    public double getTokensPerSecond()
+    {
+        long nanos = loadNanos.sum();
+        return nanos == 0 ? 0 : loadTokens.sum() / (nanos / 1e9);
+    }
+
+    public long getLoadMillis()
+    {
+        return loadNanos.sum() / 1_000_000;
+    }
+
+    public long getTopKMillis()
+    {
+        return topKNanos.sum() / 1_000_000;
+    }
+
+    public int getVocabularySize()
+    {
+        return vocabularySize;
+    }
+
+    /** The statistics below read 0 once the last vocabulary has been garbage collected */
+    public double getLoadFactor()
+    {
+        WordCounts words = lastVocabulary.get();
+        return words == null ? 0 : words.getLoadFactor();
+    }
+
+    public double getAverageProbeLength()
+    {
+        WordCounts words = lastVocabulary.get();
+        return words == null ? 0 : words.getAverageProbeLength();
+    }
+
+    public int getMaxProbeLength()
+    {
+        WordCounts words = lastVocabulary.get();
+        return words == null ? 0 : words.getMaxProbeLength();
+    }
+
+    /** @return Every metric by name */
+    public Map<String, Number> snapshot()
+    {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("loads", getLoads());
+        values.put("tokensProcessed", getTokensProcessed());
+        values.put("bytesRead", getBytesRead());
+        values.put("tokensPerSecond", getTokensPerSecond());
+        values.put("loadMillis", getLoadMillis());
+        values.put("topKMillis", getTopKMillis());
+        values.put("vocabularySize", getVocabularySize());
+        values.put("loadFactor", getLoadFactor());
+        values.put("averageProbeLength", getAverageProbeLength());
+        values.put("maxProbeLength", getMaxProbeLength());
+        return values;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * The JMX view of {@link WordCloudMetrics}
+ */
+public interface WordCloudMetricsMBean {
+
+    /** @return The number of loads finished */
+    long getLoads();
+
+    /** @return The number of tokens counted so far, including by loads still running */
+    long getTokensProcessed();
+
+    /** @return The bytes of text tokenized so far, after decompression, including by loads still running */
+    long getBytesRead();
+
+    /** @return Tokens counted per second of load time, over finished loads */
+    double getTokensPerSecond();
+
+    /** @return Milliseconds spent tokenizing and counting over all loads */
+    long getLoadMillis();
+
+    /** @return Milliseconds spent selecting top hits over all loads */
+    long getTopKMillis();
+
+    /** @return The distinct words in the most recently loaded vocabulary */
+    int getVocabularySize();
+
+    /** @return The hash table load factor of the most recently loaded vocabulary */
+    double getLoadFactor();
+
+    /** @return The mean probe length of the most recently loaded vocabulary */
+    double getAverageProbeLength();
+
+    /** @return The longest probe of the most recently loaded vocabulary */
+    int getMaxProbeLength();
+}
@@ -0,0 +1,251 @@
+/**
+ * Settings for how a {@link WordCloud} loads and counts its input.
+ * Setters return this so options can be chained.
+ */
+public class WordCloudOptions {
+
+    private int parallelism = 1;
+    private int topK = TopK.DEFAULT_K;
+    private int cardinalityPrecision;
+    private boolean offHeap;
+    private Normalizer normalizer;
+    private int nGramOrder = 1;
+    private String snapshot;
+    private long memoryBudget;
+    private String spillDirectory;
+    private ProgressListener progressListener;
+    private long progressBytes = 64L << 20;
+    private long progressMillis = 1000;
+
+    /** @return The number of threads used to count the input */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets how many threads count the input. 1 counts on the calling thread.
+     * @param parallelism The number of threads, at least 1
+     */
+    public WordCloudOptions setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /** @return The number of words kept in the top hits */
+    public int getTopK()
+    {
+        return topK;
+    }
+
+    /**
+     * Sets how many of the most frequent words are kept in the top hits
+     * @param topK The number of words, at least 1
+     */
+    public WordCloudOptions setTopK(int topK)
+    {
+        if (topK < 1)
+        {
+            throw new IllegalArgumentException("topK must be at least 1: " + topK);
+        }
+        this.topK = topK;
+        return this;
+    }
+
+    /** @return The HyperLogLog precision of the distinct-word estimate, or 0 if it is off */
+    public int getCardinalityPrecision()
+    {
+        return cardinalityPrecision;
+    }
+
+    /**
+     * Turns on a HyperLogLog estimate of the distinct words, updated while tokenizing
+     * @param precision Between 4 and 18; higher is more accurate and uses 2^precision bytes. 0 turns it off
+     */
+    public WordCloudOptions setCardinalityPrecision(int precision)
+    {
+        if (precision != 0 && (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION))
+        {
+            throw new IllegalArgumentException("precision must be 0 or between " + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION + ": " + precision);
+        }
+        this.cardinalityPrecision = precision;
+        return this;
+    }
+
+    public boolean isOffHeap()
+    {
+        return offHeap;
+    }
+
+    /**
+     * Keeps the counted words in an off-heap {@link ArenaWordTable} instead of a {@link WordTable},
+     * for vocabularies too large to hold as Java objects
+     * @param offHeap true to count off-heap
+     */
+    public WordCloudOptions setOffHeap(boolean offHeap)
+    {
+        this.offHeap = offHeap;
+        return this;
+    }
+
+    /** @return The normalization applied to tokens, or null if they are counted as they are */
+    public Normalizer getNormalizer()
+    {
+        return normalizer;
+    }
+
+    /**
+     * Normalizes tokens (case, punctuation, apostrophes, stopwords) before they are counted
+     * @param normalizer The settings to apply, or null to count tokens as they are
+     */
+    public WordCloudOptions setNormalizer(Normalizer normalizer)
+    {
+        this.normalizer = normalizer;
+        return this;
+    }
+
+    /** @return The longest phrases counted, in words */
+    public int getNGramOrder()
+    {
+        return nGramOrder;
+    }
+
+    /**
+     * Counts phrases of up to n words as well as single words. N-grams are counted on one
+     * thread, so this overrides the parallelism.
+     * @param n 1 for single words only, 2 to add bigrams, 3 to add bigrams and trigrams
+     */
+    public WordCloudOptions setNGramOrder(int n)
+    {
+        if (n < 1 || n > 3)
+        {
+            throw new IllegalArgumentException("n-gram order must be between 1 and 3: " + n);
+        }
+        this.nGramOrder = n;
+        return this;
+    }
+
+    /** @return The snapshot file the counted vocabulary is saved to and reloaded from, or null */
+    public String getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Saves the counted vocabulary to a binary snapshot, and reloads it from there instead of
+     * re-counting as long as the input file's size and modification time are unchanged.
+     * N-grams are not saved, so the snapshot is not used when the n-gram order is above 1.
+     * @param snapshot The snapshot file, or null for none
+     */
+    public WordCloudOptions setSnapshot(String snapshot)
+    {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    /** @return The most bytes the counted words may take on the heap before they are spilled to disk, or 0 for no limit */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Bounds the heap the counted words take. When the table outgrows the budget it is written
+     * to a sorted run file and emptied, and the runs are merged on disk into a snapshot-format
+     * file at the end. Spilling counts on one thread and cannot be combined with n-grams.
+     * @param bytes The budget, at least 1 MB, or 0 for no limit
+     */
+    public WordCloudOptions setMemoryBudget(long bytes)
+    {
+        if (bytes != 0 && bytes < 1 << 20)
+        {
+            throw new IllegalArgumentException("memory budget must be 0 or at least 1 MB: " + bytes);
+        }
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /** @return Where run files are spilled, or null for the temp directory */
+    public String getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    /**
+     * @param directory Where run files are spilled, or null for the temp directory
+     */
+    public WordCloudOptions setSpillDirectory(String directory)
+    {
+        this.spillDirectory = directory;
+        return this;
+    }
+
+    /** @return The listener told of the top hits while loading, or null */
+    public ProgressListener getProgressListener()
+    {
+        return progressListener;
+    }
+
+    /**
+     * Publishes the top hits while the input is loading, and the exact ones at the end.
+     * A load from a snapshot file only reports the end, as there is nothing to count. If the
+     * listener throws, the load fails with an IOException once counting is done.
+     * @param listener The listener, or null for none
+     */
+    public WordCloudOptions setProgressListener(ProgressListener listener)
+    {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /** @return The bytes counted between progress snapshots, or 0 if only time counts */
+    public long getProgressBytes()
+    {
+        return progressBytes;
+    }
+
+    /** @return The milliseconds between progress snapshots, or 0 if only bytes count */
+    public long getProgressMillis()
+    {
+        return progressMillis;
+    }
+
+    /**
+     * Sets how often progress snapshots are taken: once either limit is reached since the last
+     * one. A snapshot due while the previous one is still being ranked is skipped, so counting
+     * never waits for the listener.
+     * @param bytes The bytes of text between snapshots, or 0 to go by time alone
+     * @param millis The milliseconds between snapshots, or 0 to go by bytes alone
+     */
+    public WordCloudOptions setProgressInterval(long bytes, long millis)
+    {
+        if (bytes < 0 || millis < 0 || (bytes == 0 && millis == 0))
+        {
+            throw new IllegalArgumentException("progress interval must be non-negative and not both 0: " + bytes + ", " + millis);
+        }
+        this.progressBytes = bytes;
+        this.progressMillis = millis;
+        return this;
+    }
+
+    /** @return A hash of the settings that change which words are counted, to tell stale snapshots apart */
+    int fingerprint()
+    {
+        return normalizer != null ? normalizer.fingerprint() : 0;
+    }
+
+    /**
+     * Puts the configured normalization in front of a sink
+     * @param sink The sink that counts tokens
+     * @return The sink tokens should be fed to
+     */
+    TokenSink wrap(TokenSink sink)
+    {
+        return normalizer != null ? normalizer.wrap(sink) : sink;
+    }
+}
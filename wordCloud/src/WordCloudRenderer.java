@@ -0,0 +1,590 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Lays words out on a spiral around the centre of an image, biggest first, with font size
+ * scaled by count, and draws them to a PNG without a display.
+ * <p>
+ * Collisions are checked against an occupancy bitmap of the canvas, one bit per cell of a few
+ * pixels packed into longs, using each word's rasterized glyph shape rather than its bounding
+ * box. Testing a position is a few long ANDs per row of the word, and filled cells are skipped
+ * without being tested, so placing a word does not slow down as the image fills. Glyphs are
+ * rasterized for the bitmap with the same rendering hints as the final image, so the bitmap
+ * covers every pixel an anti-aliased edge touches, even with no padding.
+ */
+public class WordCloudRenderer {
+
+    static
+    {
+        if (System.getProperty("java.awt.headless") == null)
+        {
+            System.setProperty("java.awt.headless", "true");
+        }
+    }
+
+    private static final Color[] DEFAULT_PALETTE = {
+            new Color(0x1f77b4), new Color(0xd62728), new Color(0x2ca02c), new Color(0x9467bd),
+            new Color(0xff7f0e), new Color(0x8c564b), new Color(0x17becf), new Color(0x7f7f7f)
+    };
+
+    private final int width;
+    private final int height;
+    private String fontFamily = Font.SANS_SERIF;
+    private float minFontSize = 10;
+    private float maxFontSize;
+    private int padding = 1;
+    private int cellSize = 4;
+    private Color background = Color.WHITE;
+    private Color[] palette = DEFAULT_PALETTE;
+    /** The spiral of the last layout, kept for the next one while the cell size is unchanged */
+    private Spiral spiral;
+
+    /** Where one word went */
+    public static class Placement {
+
+        private final Word word;
+        private final Font font;
+        private final int x;
+        private final int y;
+        private final Rectangle bounds;
+
+        private Placement(Word word, Font font, int x, int y, Rectangle bounds)
+        {
+            this.word = word;
+            this.font = font;
+            this.x = x;
+            this.y = y;
+            this.bounds = bounds;
+        }
+
+        public Word getWord()
+        {
+            return word;
+        }
+
+        public Font getFont()
+        {
+            return font;
+        }
+
+        /** @return The x coordinate of the start of the baseline */
+        public int getX()
+        {
+            return x;
+        }
+
+        /** @return The y coordinate of the baseline */
+        public int getY()
+        {
+            return y;
+        }
+
+        /** @return The pixels the word covers */
+        public Rectangle getBounds()
+        {
+            return bounds;
+        }
+    }
+
+    /**
+     * @param width The image width in pixels
+     * @param height The image height in pixels
+     */
+    public WordCloudRenderer(int width, int height)
+    {
+        if (width < 1 || height < 1)
+        {
+            throw new IllegalArgumentException("image size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        maxFontSize = Math.max(minFontSize, height / 6f);
+    }
+
+    public WordCloudRenderer setFontFamily(String fontFamily)
+    {
+        this.fontFamily = fontFamily;
+        return this;
+    }
+
+    /**
+     * Sets the font sizes of the least and most frequent words
+     * @param min The smallest size in points, at least 1
+     * @param max The largest size in points, at least min
+     */
+    public WordCloudRenderer setFontSizes(float min, float max)
+    {
+        if (min < 1 || max < min)
+        {
+            throw new IllegalArgumentException("need 1 <= min <= max: " + min + ", " + max);
+        }
+        minFontSize = min;
+        maxFontSize = max;
+        return this;
+    }
+
+    /**
+     * @param padding The minimum gap between words in pixels
+     */
+    public WordCloudRenderer setPadding(int padding)
+    {
+        if (padding < 0)
+        {
+            throw new IllegalArgumentException("padding must not be negative: " + padding);
+        }
+        this.padding = padding;
+        return this;
+    }
+
+    /**
+     * Sets how finely collisions are checked. Words are placed on this grid and may sit up to
+     * a cell further apart than the padding.
+     * @param cellSize The side of an occupancy cell in pixels; 1 checks every pixel
+     */
+    public WordCloudRenderer setCellSize(int cellSize)
+    {
+        if (cellSize < 1)
+        {
+            throw new IllegalArgumentException("cell size must be at least 1: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        return this;
+    }
+
+    public WordCloudRenderer setBackground(Color background)
+    {
+        this.background = background;
+        return this;
+    }
+
+    /**
+     * @param palette The word colours, used in turn from the most frequent word
+     */
+    public WordCloudRenderer setPalette(Color... palette)
+    {
+        if (palette.length == 0)
+        {
+            throw new IllegalArgumentException("palette is empty");
+        }
+        this.palette = palette.clone();
+        return this;
+    }
+
+    /**
+     * Places the words, most frequent first. A word that does not fit is shrunk and retried,
+     * and left out once it does not fit at the smallest font size.
+     * @param words The words to place, most frequent first, as from getTopHits()
+     * @return The words that were placed
+     */
+    public List<Placement> layout(List<Word> words)
+    {
+        List<Placement> placed = new ArrayList<>();
+        if (words.isEmpty())
+        {
+            return placed;
+        }
+        int maxCount = 0;
+        int minCount = Integer.MAX_VALUE;
+        for (Word word : words)
+        {
+            maxCount = Math.max(maxCount, word.getCount());
+            minCount = Math.min(minCount, word.getCount());
+        }
+
+        Spiral shape = spiral;
+        if (shape == null || shape.columns != width / cellSize || shape.rows != height / cellSize)
+        {
+            shape = new Spiral(width / cellSize, height / cellSize);
+            spiral = shape;
+        }
+        Grid grid = new Grid(shape);
+        int margin = (padding + cellSize - 1) / cellSize;
+        BufferedImage stencil = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = stencil.createGraphics();
+        setHints(g);
+        FontRenderContext frc = g.getFontRenderContext();
+        Font base = new Font(fontFamily, Font.PLAIN, 1);
+
+        for (Word word : words)
+        {
+            float size = fontSize(word.getCount(), minCount, maxCount);
+            while (true)
+            {
+                Font font = base.deriveFont(size);
+                GlyphVector glyphs = font.createGlyphVector(frc, word.getWord());
+                Rectangle ink = glyphs.getPixelBounds(frc, 0, 0);
+                if (ink.width > 0 && ink.height > 0)
+                {
+                    int stencilWidth = ink.width + cellSize;
+                    int stencilHeight = ink.height + cellSize;
+                    if (stencilWidth > stencil.getWidth() || stencilHeight > stencil.getHeight())
+                    {
+                        g.dispose();
+                        stencil = new BufferedImage(Math.max(stencilWidth, stencil.getWidth()),
+                                Math.max(stencilHeight, stencil.getHeight()), BufferedImage.TYPE_BYTE_GRAY);
+                        g = stencil.createGraphics();
+                        setHints(g);
+                    }
+                    Mask mask = new Mask(glyphs, ink, cellSize, margin, stencil, g);
+                    if (grid.place(mask))
+                    {
+                        int x = (mask.left + margin) * cellSize - ink.x;
+                        int y = (mask.top + margin) * cellSize - ink.y;
+                        placed.add(new Placement(word, font, x, y, new Rectangle(x + ink.x, y + ink.y, ink.width, ink.height)));
+                        break;
+                    }
+                }
+                if (size <= minFontSize)
+                {
+                    break;
+                }
+                size = Math.max(minFontSize, size * 0.8f);
+            }
+        }
+        g.dispose();
+        return placed;
+    }
+
+    /** Scales by the square root of the count, so the area of a word tracks its frequency */
+    private float fontSize(int count, int minCount, int maxCount)
+    {
+        if (maxCount == minCount)
+        {
+            return maxFontSize;
+        }
+        double t = (Math.sqrt(count) - Math.sqrt(minCount)) / (Math.sqrt(maxCount) - Math.sqrt(minCount));
+        return (float) (minFontSize + t * (maxFontSize - minFontSize));
+    }
+
+    /**
+     * Draws placed words
+     * @param placements The output of {@link #layout(List)}
+     * @return The image
+     */
+    public BufferedImage render(List<Placement> placements)
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        setHints(g);
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < placements.size(); i++)
+        {
+            Placement p = placements.get(i);
+            g.setColor(palette[i % palette.length]);
+            g.setFont(p.getFont());
+            g.drawString(p.getWord().getWord(), p.getX(), p.getY());
+        }
+        g.dispose();
+        return image;
+    }
+
+    /** The hints both the layout stencil and the final image are drawn with, so they cover the same pixels */
+    private static void setHints(Graphics2D g)
+    {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    }
+
+    /**
+     * Lays out and draws words to a PNG file
+     * @param words The words to draw, most frequent first
+     * @param file Where to write the PNG
+     */
+    public void writePng(List<Word> words, Path file) throws IOException
+    {
+        if (!ImageIO.write(render(layout(words)), "png", file.toFile()))
+        {
+            throw new IOException("no PNG writer available");
+        }
+    }
+
+    /**
+     * The cells of a grid in spiral order out from its centre. It only depends on the grid size,
+     * so it is worked out once and shared by every layout of that size.
+     */
+    private static class Spiral {
+
+        final int columns;
+        final int rows;
+        /** The cells in spiral order, split into x and y so the search never divides */
+        final int[] spiralX;
+        final int[] spiralY;
+        /** Spiral position of each cell, or -1 if the spiral skips it */
+        final int[] position;
+
+        Spiral(int columns, int rows)
+        {
+            this.columns = columns;
+            this.rows = rows;
+            position = new int[columns * rows];
+            Arrays.fill(position, -1);
+
+            // an elliptical spiral shaped like the grid, about one cell along the curve per step
+            // and one cell out per turn, out to the corners
+            int[] cells = new int[columns * rows];
+            int n = 0;
+            double aspect = Math.sqrt((double) columns / Math.max(rows, 1));
+            double maxRadius = Math.hypot(columns, rows) / 2 + 1;
+            double angle = 0;
+            double radius = 0;
+            while (radius < maxRadius)
+            {
+                int x = columns / 2 + (int) Math.round(radius * Math.cos(angle) * aspect);
+                int y = rows / 2 + (int) Math.round(radius * Math.sin(angle) / aspect);
+                if (x >= 0 && y >= 0 && x < columns && y < rows && position[y * columns + x] < 0)
+                {
+                    position[y * columns + x] = n;
+                    cells[n++] = y * columns + x;
+                }
+                double step = radius < 1 ? 0.5 : 1 / radius;
+                angle += step;
+                radius += step / (2 * Math.PI);
+            }
+            spiralX = new int[n];
+            spiralY = new int[n];
+            for (int i = 0; i < n; i++)
+            {
+                spiralX[i] = cells[i] % columns;
+                spiralY[i] = cells[i] / columns;
+            }
+        }
+    }
+
+    /**
+     * The occupancy bitmap, and the free cells of a spiral out from its centre. Cells of the
+     * spiral that fill up are spliced out with a union-find over spiral positions, so a word
+     * only ever tries positions that put its anchor cell on a free cell.
+     */
+    private static class Grid {
+
+        final int columns;
+        final int rows;
+        final int stride;
+        final long[] occupied;
+        final int[] spiralX;
+        final int[] spiralY;
+        final int[] position;
+        /** Union-find links to the next spiral position that may still be free */
+        final int[] next;
+
+        Grid(Spiral spiral)
+        {
+            columns = spiral.columns;
+            rows = spiral.rows;
+            stride = (columns + 63) >>> 6;
+            occupied = new long[stride * rows];
+            spiralX = spiral.spiralX;
+            spiralY = spiral.spiralY;
+            position = spiral.position;
+            int n = spiralX.length;
+            next = new int[n + 1];
+            for (int i = 0; i <= n; i++)
+            {
+                next[i] = i;
+            }
+        }
+
+        /** @return The first spiral position at or after i whose cell is free, or the spiral length */
+        int free(int i)
+        {
+            while (next[i] != i)
+            {
+                next[i] = next[next[i]];
+                i = next[i];
+            }
+            return i;
+        }
+
+        /**
+         * Puts the mask's anchor on each free cell of the spiral in turn and marks the first spot that fits
+         * @return Whether a spot was found
+         */
+        boolean place(Mask mask)
+        {
+            if (mask.width > columns || mask.height > rows)
+            {
+                return false;
+            }
+            for (int i = free(0); i < spiralX.length; i = free(i + 1))
+            {
+                int x = spiralX[i] - mask.anchorX;
+                int y = spiralY[i] - mask.anchorY;
+                if (x >= 0 && y >= 0 && x + mask.width <= columns && y + mask.height <= rows && fits(mask, x, y))
+                {
+                    mask.left = x;
+                    mask.top = y;
+                    mark(mask);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean fits(Mask mask, int x, int y)
+        {
+            int shift = x & 63;
+            int base = x >>> 6;
+            for (int r : mask.rows)
+            {
+                int row = (y + r) * stride + base;
+                int last = row - base + stride;
+                for (int i = 0; i < mask.stride; i++)
+                {
+                    long m = mask.bits[r * mask.stride + i];
+                    if (m == 0)
+                    {
+                        continue;
+                    }
+                    if (row + i < last && (occupied[row + i] & (m << shift)) != 0)
+                    {
+                        return false;
+                    }
+                    if (shift != 0 && row + i + 1 < last && (occupied[row + i + 1] & (m >>> (64 - shift))) != 0)
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void mark(Mask mask)
+        {
+            for (int r : mask.rows)
+            {
+                int y = mask.top + r;
+                for (int i = 0; i < mask.stride; i++)
+                {
+                    long m = mask.bits[r * mask.stride + i];
+                    while (m != 0)
+                    {
+                        int x = mask.left + i * 64 + Long.numberOfTrailingZeros(m);
+                        m &= m - 1;
+                        occupied[y * stride + (x >>> 6)] |= 1L << x;
+                        int p = position[y * columns + x];
+                        if (p >= 0)
+                        {
+                            next[p] = p + 1;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** The cells one word covers, grown by the margin, one bit per cell */
+    private static class Mask {
+
+        final int width;
+        final int height;
+        final int stride;
+        final long[] bits;
+        /** The rows with any bits set, densest first, so a collision is usually found on the first */
+        final int[] rows;
+        /** A covered cell near the middle, which goes on a free cell of the spiral */
+        int anchorX;
+        int anchorY;
+        int left;
+        int top;
+
+        /**
+         * @param stencil A scratch image at least a cell bigger than the ink each way
+         * @param g Graphics drawing on the stencil
+         */
+        Mask(GlyphVector glyphs, Rectangle ink, int cellSize, int margin, BufferedImage stencil, Graphics2D g)
+        {
+            int inkColumns = (ink.width + cellSize - 1) / cellSize;
+            int inkRows = (ink.height + cellSize - 1) / cellSize;
+            width = inkColumns + 2 * margin;
+            height = inkRows + 2 * margin;
+            stride = (width + 63) >>> 6;
+            bits = new long[stride * height];
+
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, inkColumns * cellSize, inkRows * cellSize);
+            g.setColor(Color.WHITE);
+            g.drawGlyphVector(glyphs, -ink.x, -ink.y);
+            int imageWidth = stencil.getWidth();
+            byte[] pixels = ((DataBufferByte) stencil.getRaster().getDataBuffer()).getData();
+
+            for (int cy = 0; cy < inkRows; cy++)
+            {
+                for (int cx = 0; cx < inkColumns; cx++)
+                {
+                    if (inked(pixels, imageWidth, cx * cellSize, cy * cellSize, cellSize))
+                    {
+                        for (int dy = 0; dy <= 2 * margin; dy++)
+                        {
+                            int row = (cy + dy) * stride;
+                            for (int dx = 0; dx <= 2 * margin; dx++)
+                            {
+                                int col = cx + dx;
+                                bits[row + (col >>> 6)] |= 1L << col;
+                            }
+                        }
+                    }
+                }
+            }
+
+            long[] weighted = new long[height];
+            int n = 0;
+            int nearest = Integer.MAX_VALUE;
+            for (int r = 0; r < height; r++)
+            {
+                int cellCount = 0;
+                for (int c = 0; c < width; c++)
+                {
+                    if ((bits[r * stride + (c >>> 6)] & 1L << c) != 0)
+                    {
+                        cellCount++;
+                        int distance = Math.abs(2 * c - width) + Math.abs(2 * r - height);
+                        if (distance < nearest)
+                        {
+                            nearest = distance;
+                            anchorX = c;
+                            anchorY = r;
+                        }
+                    }
+                }
+                if (cellCount > 0)
+                {
+                    weighted[n++] = (long) -cellCount << 32 | r;
+                }
+            }
+            Arrays.sort(weighted, 0, n);
+            rows = new int[n];
+            for (int i = 0; i < n; i++)
+            {
+                rows[i] = (int) weighted[i];
+            }
+        }
+
+        private static boolean inked(byte[] pixels, int imageWidth, int x, int y, int cellSize)
+        {
+            for (int i = y * imageWidth + x; i < (y + cellSize) * imageWidth; i += imageWidth)
+            {
+                for (int j = i; j < i + cellSize; j++)
+                {
+                    if (pixels[j] != 0)
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
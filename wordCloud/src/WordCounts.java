@@ -0,0 +1,36 @@
+/**
+ * Distinct words and their counts that can be read and searched but not added to. Every word
+ * has a dense id (0, 1, 2, ...) and is held as UTF-8 bytes. A {@link Vocabulary} is the kind
+ * that counts; a {@link SnapshotVocabulary} is only this.
+ */
+public interface WordCounts extends CountSource {
+
+    /**
+     * Looks up a word without counting it
+     * @return The id of the word, or -1 if it has not been seen
+     */
+    int find(byte[] buf, int off, int len);
+
+    /** @return The number of occurrences of all words */
+    long getTotal();
+
+    /** @return The length of a word in UTF-8 bytes */
+    int getKeyLength(int id);
+
+    /**
+     * Copies the UTF-8 bytes of a word
+     * @param id The id of the word
+     * @param dst The array to copy into, with room for {@link #getKeyLength} bytes
+     * @param off Where in the array the word goes
+     */
+    void copyKey(int id, byte[] dst, int off);
+
+    /** @return The fraction of hash slots in use, or 0 for a store without a hash table */
+    double getLoadFactor();
+
+    /** @return The mean number of slots probed to find a word, or 0 for a store without a hash table */
+    double getAverageProbeLength();
+
+    /** @return The most slots probed to find any word, or 0 for a store without a hash table */
+    int getMaxProbeLength();
+}
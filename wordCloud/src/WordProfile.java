@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * A document's word counts as a sparse vector: the {@link WordTable#hash64} of each distinct
+ * word in increasing order, with its count alongside. Two profiles are compared by walking
+ * both arrays once, without looking at a single word's bytes, and a profile is a fraction of
+ * the size of the vocabulary it was made from.
+ */
+public class WordProfile {
+
+    /** Past this size ratio the smaller profile is looked up in the larger instead of merged */
+    private static final int GALLOP_RATIO = 16;
+
+    private final long[] hashes;
+    private final int[] counts;
+    private final double norm;
+
+    private WordProfile(long[] hashes, int[] counts)
+    {
+        this.hashes = hashes;
+        this.counts = counts;
+        double sum = 0;
+        for (int count : counts)
+        {
+            sum += (double) count * count;
+        }
+        norm = Math.sqrt(sum);
+    }
+
+    /**
+     * Makes the profile of a vocabulary
+     * @param words The counted words
+     * @return A profile that no longer depends on the vocabulary
+     */
+    public static WordProfile of(WordCounts words)
+    {
+        int n = words.size();
+        long[] byId = new long[n];
+        Integer[] order = new Integer[n];
+        byte[] key = new byte[64];
+        for (int id = 0; id < n; id++)
+        {
+            int len = words.getKeyLength(id);
+            if (len > key.length)
+            {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            words.copyKey(id, key, 0);
+            byId[id] = WordTable.hash64(key, 0, len);
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(byId[a], byId[b]));
+
+        // two words with the same hash are one dimension; their counts add up
+        long[] hashes = new long[n];
+        int[] counts = new int[n];
+        int size = 0;
+        for (int id : order)
+        {
+            if (size > 0 && hashes[size - 1] == byId[id])
+            {
+                counts[size - 1] += words.getCount(id);
+            }
+            else
+            {
+                hashes[size] = byId[id];
+                counts[size++] = words.getCount(id);
+            }
+        }
+        return new WordProfile(Arrays.copyOf(hashes, size), Arrays.copyOf(counts, size));
+    }
+
+    /** @return The number of distinct words */
+    public int size()
+    {
+        return hashes.length;
+    }
+
+    /** @return The Euclidean length of the count vector */
+    public double getNorm()
+    {
+        return norm;
+    }
+
+    long getHash(int i)
+    {
+        return hashes[i];
+    }
+
+    /**
+     * @param other Another profile
+     * @return The dot product of the two count vectors
+     */
+    public double dot(WordProfile other)
+    {
+        if (hashes.length > other.hashes.length)
+        {
+            return other.dot(this);
+        }
+        long[] a = hashes;
+        long[] b = other.hashes;
+        double sum = 0;
+        if ((long) a.length * GALLOP_RATIO < b.length)
+        {
+            int from = 0;
+            for (int i = 0; i < a.length && from < b.length; i++)
+            {
+                int j = Arrays.binarySearch(b, from, b.length, a[i]);
+                if (j >= 0)
+                {
+                    sum += (double) counts[i] * other.counts[j];
+                    from = j + 1;
+                }
+                else
+                {
+                    from = -j - 1;
+                }
+            }
+            return sum;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length)
+        {
+            if (a[i] < b[j])
+            {
+                i++;
+            }
+            else if (a[i] > b[j])
+            {
+                j++;
+            }
+            else
+            {
+                sum += (double) counts[i++] * other.counts[j++];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param other Another profile
+     * @return The cosine of the angle between the two count vectors, from 0 for no shared words to 1 for the same proportions
+     */
+    public double cosine(WordProfile other)
+    {
+        if (norm == 0 || other.norm == 0)
+        {
+            return 0;
+        }
+        return Math.min(1, dot(other) / (norm * other.norm));
+    }
+}
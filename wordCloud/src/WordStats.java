@@ -0,0 +1,16 @@
+import java.util.List;
+
+/**
+ * The read side shared by every kind of word cloud: the most frequent words and a printout.
+ */
+public interface WordStats {
+
+    /** @return The most frequent words, most frequent first */
+    List<Word> getTopHits();
+
+    /** @return The number of words counted */
+    long getTotalWords();
+
+    /** Prints the totals and the top hits to standard out */
+    void printInfo();
+}
@@ -0,0 +1,403 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table that maps words to primitive int counts.
+ * Every distinct word gets a dense id (0, 1, 2, ...) in the order it was first seen.
+ * Words are keyed by their UTF-8 bytes so tokens can be counted straight out of a byte buffer;
+ * a String is only created the first time a word is seen.
+ */
+public class WordTable implements Vocabulary {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /** Hash slots holding id + 1, or 0 for an empty slot */
+    private int[] slots;
+    private int mask;
+
+    private byte[][] keys;
+    private String[] words;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private long total;
+
+    public WordTable()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty table sized for a number of distinct words
+     * @param expected The number of distinct words expected
+     */
+    public WordTable(int expected)
+    {
+        int capacity = Integer.highestOneBit(Math.max(expected, 16) * 2 - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        keys = new byte[capacity / 2][];
+        words = new String[capacity / 2];
+        hashes = new int[capacity / 2];
+        counts = new int[capacity / 2];
+    }
+
+    /** Copies the arrays of another table; keys and words are immutable, so they are shared */
+    private WordTable(WordTable other)
+    {
+        slots = other.slots.clone();
+        mask = other.mask;
+        keys = other.keys.clone();
+        words = other.words.clone();
+        hashes = other.hashes.clone();
+        counts = other.counts.clone();
+        size = other.size;
+        total = other.total;
+    }
+
+    /**
+     * Hashes a run of bytes (FNV-1a followed by a 64-bit finalizer)
+     * @param buf The buffer holding the bytes
+     * @param off The offset of the first byte
+     * @param len The number of bytes
+     * @return A well-mixed 64-bit hash
+     */
+    public static long hash64(byte[] buf, int off, int len)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = off; i < off + len; i++)
+        {
+            h = (h ^ buf[i]) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Adds one occurrence of a word
+     * @param word The word to count
+     * @return The id of the word
+     */
+    public int add(String word)
+    {
+        return add(word, 1);
+    }
+
+    /**
+     * Adds a number of occurrences of a word
+     * @param word The word to count
+     * @param n The number of occurrences
+     * @return The id of the word
+     */
+    public int add(String word, int n)
+    {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        return add(key, 0, key.length, n, hash64(key, 0, key.length), word);
+    }
+
+    /**
+     * Adds one occurrence of a word given as UTF-8 bytes
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @return The id of the word
+     */
+    public int add(byte[] buf, int off, int len)
+    {
+        return add(buf, off, len, 1, hash64(buf, off, len), null);
+    }
+
+    /**
+     * Adds one occurrence of a word whose hash the caller has already computed
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param hash The word's {@link #hash64}
+     * @return The id of the word
+     */
+    public int addHashed(byte[] buf, int off, int len, long hash)
+    {
+        return add(buf, off, len, 1, hash, null);
+    }
+
+    /**
+     * Adds a number of occurrences of a word given as UTF-8 bytes
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param n The number of occurrences
+     * @return The id of the word
+     */
+    public int add(byte[] buf, int off, int len, int n)
+    {
+        return add(buf, off, len, n, hash64(buf, off, len), null);
+    }
+
+    /**
+     * Adds a number of occurrences of a word whose hash the caller has already computed
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @param n The number of occurrences
+     * @param hash The word's {@link #hash64}
+     * @return The id of the word
+     */
+    public int addHashed(byte[] buf, int off, int len, int n, long hash)
+    {
+        return add(buf, off, len, n, hash, null);
+    }
+
+    /** @return A table with the same words and counts that can be changed independently of this one */
+    public WordTable copy()
+    {
+        return new WordTable(this);
+    }
+
+    /** Forgets every word, keeping the capacity the table has grown to */
+    public void clear()
+    {
+        Arrays.fill(slots, 0);
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(words, 0, size, null);
+        size = 0;
+        total = 0;
+    }
+
+    public void addAll(WordCounts other)
+    {
+        if (other instanceof WordTable)
+        {
+            WordTable table = (WordTable) other;
+            for (int id = 0; id < table.size; id++)
+            {
+                byte[] key = table.keys[id];
+                add(key, 0, key.length, table.counts[id], hash64(key, 0, key.length), table.words[id]);
+            }
+            return;
+        }
+        byte[] key = new byte[64];
+        for (int id = 0; id < other.size(); id++)
+        {
+            int len = other.getKeyLength(id);
+            if (len > key.length)
+            {
+                key = new byte[Math.max(len, key.length * 2)];
+            }
+            other.copyKey(id, key, 0);
+            add(key, 0, len, other.getCount(id), hash64(key, 0, len), null);
+        }
+    }
+
+    private int add(byte[] buf, int off, int len, int n, long hash, String word)
+    {
+        int h = (int) hash;
+        int i = h & mask;
+        while (slots[i] != 0)
+        {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && Arrays.equals(keys[id], 0, keys[id].length, buf, off, off + len))
+            {
+                counts[id] += n;
+                total += n;
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (size == keys.length)
+        {
+            grow();
+            return add(buf, off, len, n, hash, word);
+        }
+        int id = size++;
+        keys[id] = Arrays.copyOfRange(buf, off, off + len);
+        words[id] = word != null ? word : new String(keys[id], StandardCharsets.UTF_8);
+        hashes[id] = h;
+        counts[id] = n;
+        total += n;
+        slots[i] = id + 1;
+        return id;
+    }
+
+    /**
+     * Looks up a word without counting it
+     * @param word The word to find
+     * @return The id of the word, or -1 if it has not been seen
+     */
+    public int find(String word)
+    {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        return find(key, 0, key.length);
+    }
+
+    /**
+     * Looks up a word given as UTF-8 bytes without counting it
+     * @param buf The buffer holding the word
+     * @param off The offset of the word in the buffer
+     * @param len The length of the word in bytes
+     * @return The id of the word, or -1 if it has not been seen
+     */
+    public int find(byte[] buf, int off, int len)
+    {
+        int h = (int) hash64(buf, off, len);
+        int i = h & mask;
+        while (slots[i] != 0)
+        {
+            int id = slots[i] - 1;
+            if (hashes[id] == h && Arrays.equals(keys[id], 0, keys[id].length, buf, off, off + len))
+            {
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow()
+    {
+        int capacity = slots.length * 2;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        keys = Arrays.copyOf(keys, capacity / 2);
+        words = Arrays.copyOf(words, capacity / 2);
+        hashes = Arrays.copyOf(hashes, capacity / 2);
+        counts = Arrays.copyOf(counts, capacity / 2);
+        for (int id = 0; id < size; id++)
+        {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    /** @return The number of distinct words the table holds before it next grows */
+    public int getCapacity()
+    {
+        return keys.length;
+    }
+
+    /** @return The number of distinct words */
+    public int size()
+    {
+        return size;
+    }
+
+    /** @return The number of occurrences of all words */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public String getWord(int id)
+    {
+        return words[id];
+    }
+
+    /** @return The UTF-8 bytes of a word; the array must not be modified */
+    public byte[] getKey(int id)
+    {
+        return keys[id];
+    }
+
+    public int getKeyLength(int id)
+    {
+        return keys[id].length;
+    }
+
+    public void copyKey(int id, byte[] dst, int off)
+    {
+        System.arraycopy(keys[id], 0, dst, off, keys[id].length);
+    }
+
+    public int compareWords(int a, int b)
+    {
+        return Arrays.compareUnsigned(keys[a], keys[b]);
+    }
+
+    public int getCount(int id)
+    {
+        return counts[id];
+    }
+
+    public CountSource freeze()
+    {
+        return new Frozen(keys, words, counts, size);
+    }
+
+    /**
+     * The words of the table when frozen, holding on to its key and word arrays, whose entries
+     * below size never change, with a copy of the counts
+     */
+    private static class Frozen implements CountSource {
+
+        private final byte[][] keys;
+        private final String[] words;
+        private final int[] counts;
+        private final int size;
+
+        Frozen(byte[][] keys, String[] words, int[] live, int size)
+        {
+            this.keys = keys;
+            this.words = words;
+            counts = Arrays.copyOf(live, size);
+            this.size = size;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public int getCount(int id)
+        {
+            return counts[id];
+        }
+
+        public String getWord(int id)
+        {
+            return words[id];
+        }
+
+        public int compareWords(int a, int b)
+        {
+            return Arrays.compareUnsigned(keys[a], keys[b]);
+        }
+    }
+
+    public double getLoadFactor()
+    {
+        return (double) size / slots.length;
+    }
+
+    public double getAverageProbeLength()
+    {
+        long probes = 0;
+        for (int i = 0; i < slots.length; i++)
+        {
+            if (slots[i] != 0)
+            {
+                probes += ((i - hashes[slots[i] - 1]) & mask) + 1;
+            }
+        }
+        return size == 0 ? 0 : (double) probes / size;
+    }
+
+    public int getMaxProbeLength()
+    {
+        int max = 0;
+        for (int i = 0; i < slots.length; i++)
+        {
+            if (slots[i] != 0)
+            {
+                max = Math.max(max, ((i - hashes[slots[i] - 1]) & mask) + 1);
+            }
+        }
+        return max;
+    }
+}
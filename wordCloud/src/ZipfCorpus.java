@@ -0,0 +1,96 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic text whose word frequencies follow Zipf's law, like natural language:
+ * the word of rank r appears in proportion to 1 / r^s. Output is deterministic for a seed.
+ */
+public class ZipfCorpus {
+
+    private final byte[][] words;
+    private final double[] cumulative;
+
+    /**
+     * @param vocabulary The number of distinct words
+     * @param exponent The Zipf exponent s; around 1 for English
+     */
+    public ZipfCorpus(int vocabulary, double exponent)
+    {
+        words = new byte[vocabulary][];
+        cumulative = new double[vocabulary];
+        Random random = new Random(vocabulary);
+        double sum = 0;
+        for (int r = 0; r < vocabulary; r++)
+        {
+            int length = 2 + Math.min(12, (int) Math.log(r + 2) + random.nextInt(4));
+            byte[] word = new byte[length];
+            for (int i = 0; i < length; i++)
+            {
+                word[i] = (byte) ('a' + random.nextInt(26));
+            }
+            words[r] = word;
+            sum += 1 / Math.pow(r + 1, exponent);
+            cumulative[r] = sum;
+        }
+        for (int r = 0; r < vocabulary; r++)
+        {
+            cumulative[r] /= sum;
+        }
+    }
+
+    /**
+     * Writes words separated by spaces and the odd line break until the size is reached
+     * @param out Where to write
+     * @param bytes About how many bytes to write
+     * @param seed The random seed
+     */
+    public void write(OutputStream out, long bytes, long seed) throws IOException
+    {
+        Random random = new Random(seed);
+        long written = 0;
+        int onLine = 0;
+        while (written < bytes)
+        {
+            int r = Arrays.binarySearch(cumulative, random.nextDouble());
+            byte[] word = words[r >= 0 ? r : Math.min(-r - 1, words.length - 1)];
+            out.write(word);
+            onLine++;
+            if (onLine == 12)
+            {
+                out.write('\n');
+                onLine = 0;
+            }
+            else
+            {
+                out.write(' ');
+            }
+            written += word.length + 1;
+        }
+    }
+
+    /**
+     * Returns a cached corpus file of the given size in the temp directory, generating it if needed
+     * @param bytes The size of the corpus
+     */
+    public static Path cached(long bytes) throws IOException
+    {
+        Path file = Paths.get(System.getProperty("java.io.tmpdir"), "wordcloud-zipf-" + bytes + ".txt");
+        if (!Files.exists(file) || Files.size(file) < bytes)
+        {
+            Path temp = Files.createTempFile(file.getParent(), "wordcloud-zipf", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))
+            {
+                new ZipfCorpus(1_000_000, 1.07).write(out, bytes, 42);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+}
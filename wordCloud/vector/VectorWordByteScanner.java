@@ -0,0 +1,62 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Classifies bytes with the incubating Vector API, a whole vector (32 or 64 bytes on current
+ * x86 and ARM hardware) per comparison. Loaded reflectively by {@link WordByteScanner#best()},
+ * so the main sources never refer to jdk.incubator.vector.
+ * <p>
+ * VectorMask.toLong() is not an intrinsic on JDK 17 and costs more than the classifying, so
+ * the mask is turned into bits by hand: as 0/1 bytes, viewed as longs, the same multiply that
+ * gathers eight bytes' bits in {@link SwarWordByteScanner} is done on every lane at once.
+ */
+public class VectorWordByteScanner implements WordByteScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = SPECIES.vectorShape().withLanes(long.class);
+    private static final int LANES = SPECIES.length();
+    private static final ByteVector ZERO = ByteVector.zero(SPECIES);
+    /** Where each long lane's eight bits go in the result */
+    private static final LongVector LANE_SHIFTS = LongVector.fromArray(LONGS,
+            new long[] {0, 8, 16, 24, 32, 40, 48, 56}, 0);
+
+    public VectorWordByteScanner()
+    {
+        if (LANES > BLOCK || BLOCK % LANES != 0)
+        {
+            throw new IllegalStateException("unsupported vector length: " + LANES);
+        }
+    }
+
+    @Override
+    public long wordMask(byte[] buf, int off)
+    {
+        long mask = 0;
+        for (int i = 0; i < BLOCK; i += LANES)
+        {
+            ByteVector bits = ZERO.blend((byte) 1, wordMask(ByteVector.fromArray(SPECIES, buf, off + i)));
+            LongVector gathered = bits.reinterpretAsLongs()
+                    .lanewise(VectorOperators.MUL, 0x0102040810204080L)
+                    .lanewise(VectorOperators.LSHR, 56)
+                    .lanewise(VectorOperators.LSHL, LANE_SHIFTS);
+            mask |= gathered.reduceLanes(VectorOperators.OR) << i;
+        }
+        return mask;
+    }
+
+    /**
+     * An unsigned range test as one signed compare: x is in [lo, lo + n) when
+     * x - lo - 128 is below n - 128
+     */
+    private static VectorMask<Byte> wordMask(ByteVector v)
+    {
+        // bytes with the high bit set are negative, and are word bytes; what the range tests say about them does not matter
+        VectorMask<Byte> word = v.compare(VectorOperators.LT, (byte) 0);
+        word = word.or(v.or((byte) 0x20).sub((byte) ('a' + 128)).compare(VectorOperators.LT, (byte) (26 - 128)));
+        word = word.or(v.sub((byte) ('0' + 128)).compare(VectorOperators.LT, (byte) (10 - 128)));
+        return word.or(v.compare(VectorOperators.EQ, (byte) '\''));
+    }
+}